@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compiles keyboard layouts from their XML resources into the binary form of
+ * {@link KeyboardLayout}, for offline use.  The compiled layouts go into the
+ * package assets; the build of this module compiles them again from
+ * ../res/xml, so that they follow the XML:
+ *
+ * <pre>
+ *   java net.nasepismo.ime.KeyboardCompiler assets \
+ *       res/xml/qwerty.xml res/xml/symbols.xml res/xml/symbols_shift.xml
+ * </pre>
+ *
+ * <p>Only the attributes which the layouts of this input method use are
+ * understood; any other attribute is an error, rather than silently lost.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyboardCompiler {
+
+  /** The file name extension of compiled layouts. */
+  static final String EXTENSION = ".kbd";
+
+  private static final String PREFIX = "android:";
+
+  private KeyboardCompiler() {}
+
+  public static KeyboardLayout compile(File xml) throws Exception {
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xml);
+    Element keyboard = document.getDocumentElement();
+    if (!"Keyboard".equals(keyboard.getTagName())) {
+      throw new IOException(xml + ": not a keyboard");
+    }
+    KeyboardLayout layout = new KeyboardLayout();
+    checkAttributes(keyboard, "keyWidth", "keyHeight", "horizontalGap", "verticalGap");
+    layout.keyWidth = dimension(keyboard, "keyWidth");
+    layout.keyHeight = dimension(keyboard, "keyHeight");
+    layout.horizontalGap = dimension(keyboard, "horizontalGap");
+    layout.verticalGap = dimension(keyboard, "verticalGap");
+
+    for (Element rowElement : children(keyboard, "Row")) {
+      checkAttributes(rowElement,
+          "keyWidth", "keyHeight", "horizontalGap", "verticalGap", "rowEdgeFlags");
+      KeyboardLayout.Row row = new KeyboardLayout.Row();
+      row.keyWidth = dimension(rowElement, "keyWidth");
+      row.keyHeight = dimension(rowElement, "keyHeight");
+      row.horizontalGap = dimension(rowElement, "horizontalGap");
+      row.verticalGap = dimension(rowElement, "verticalGap");
+      row.rowEdgeFlags = edgeFlags(rowElement.getAttribute(PREFIX + "rowEdgeFlags"));
+
+      for (Element keyElement : children(rowElement, "Key")) {
+        checkAttributes(keyElement, "codes", "keyLabel", "keyIcon", "keyWidth", "keyHeight",
+            "horizontalGap", "keyEdgeFlags", "isModifier", "isSticky", "isRepeatable");
+        KeyboardLayout.Key key = new KeyboardLayout.Key();
+        String label = unescape(keyElement.getAttribute(PREFIX + "keyLabel"));
+        key.label = label.length() > 0 ? label : null;
+        String codes = keyElement.getAttribute(PREFIX + "codes");
+        if (codes.length() > 0) {
+          String[] parts = codes.split(",");
+          key.codes = new int[parts.length];
+          for (int i = 0; i < parts.length; i++) {
+            key.codes[i] = Integer.parseInt(parts[i].trim());
+          }
+        } else if (key.label != null) {
+          key.codes = new int[] { key.label.charAt(0) };
+        } else {
+          throw new IOException(xml + ": a key has neither codes nor a label");
+        }
+        String icon = keyElement.getAttribute(PREFIX + "keyIcon");
+        if (icon.length() > 0) {
+          key.icon = resourceName(icon, "@drawable/");
+        }
+        key.width = dimension(keyElement, "keyWidth");
+        key.height = dimension(keyElement, "keyHeight");
+        key.horizontalGap = dimension(keyElement, "horizontalGap");
+        key.edgeFlags = edgeFlags(keyElement.getAttribute(PREFIX + "keyEdgeFlags"));
+        key.modifier = "true".equals(keyElement.getAttribute(PREFIX + "isModifier"));
+        key.sticky = "true".equals(keyElement.getAttribute(PREFIX + "isSticky"));
+        key.repeatable = "true".equals(keyElement.getAttribute(PREFIX + "isRepeatable"));
+        row.keys.add(key);
+      }
+      layout.rows.add(row);
+    }
+    return layout;
+  }
+
+  private static List<Element> children(Element parent, String tag) throws IOException {
+    List<Element> elements = new ArrayList<Element>();
+    NodeList nodes = parent.getChildNodes();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      Node node = nodes.item(i);
+      if (node.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      if (!tag.equals(node.getNodeName())) {
+        throw new IOException("Unexpected <" + node.getNodeName() + "> in <"
+            + parent.getTagName() + ">");
+      }
+      elements.add((Element) node);
+    }
+    return elements;
+  }
+
+  private static void checkAttributes(Element element, String... known) throws IOException {
+    for (int i = 0; i < element.getAttributes().getLength(); i++) {
+      String name = element.getAttributes().item(i).getNodeName();
+      if (name.startsWith("xmlns")) {
+        continue;
+      }
+      boolean found = false;
+      for (String attribute : known) {
+        found |= name.equals(PREFIX + attribute);
+      }
+      if (!found) {
+        throw new IOException("Unsupported attribute " + name + " on <"
+            + element.getTagName() + ">");
+      }
+    }
+  }
+
+  static KeyboardLayout.Dimension dimension(Element element, String attribute)
+      throws IOException {
+    String value = element.getAttribute(PREFIX + attribute).trim();
+    if (value.length() == 0) {
+      return KeyboardLayout.Dimension.UNSET;
+    }
+    if (value.startsWith("@")) {
+      return new KeyboardLayout.Dimension(KeyboardLayout.Dimension.RESOURCE, 0,
+          resourceName(value, "@dimen/"));
+    }
+    if (value.endsWith("%p")) {
+      return new KeyboardLayout.Dimension(KeyboardLayout.Dimension.FRACTION,
+          Float.parseFloat(value.substring(0, value.length() - 2)) / 100, null);
+    }
+    if (value.endsWith("px")) {
+      return new KeyboardLayout.Dimension(KeyboardLayout.Dimension.PIXELS,
+          Float.parseFloat(value.substring(0, value.length() - 2)), null);
+    }
+    if (value.endsWith("dip") || value.endsWith("dp")) {
+      return new KeyboardLayout.Dimension(KeyboardLayout.Dimension.DIP,
+          Float.parseFloat(value.substring(0, value.length() - (value.endsWith("dip") ? 3 : 2))),
+          null);
+    }
+    throw new IOException("Unsupported dimension: " + value);
+  }
+
+  private static String resourceName(String reference, String prefix) throws IOException {
+    if (!reference.startsWith(prefix)) {
+      throw new IOException("Expected a " + prefix + " reference: " + reference);
+    }
+    return reference.substring(prefix.length());
+  }
+
+  static int edgeFlags(String value) throws IOException {
+    int flags = 0;
+    if (value.length() == 0) {
+      return flags;
+    }
+    for (String flag : value.split("\\|")) {
+      flag = flag.trim();
+      if ("left".equals(flag)) {
+        flags |= 1;
+      } else if ("right".equals(flag)) {
+        flags |= 2;
+      } else if ("top".equals(flag)) {
+        flags |= 4;
+      } else if ("bottom".equals(flag)) {
+        flags |= 8;
+      } else {
+        throw new IOException("Unknown edge flag: " + flag);
+      }
+    }
+    return flags;
+  }
+
+  /** Undoes the backslash escapes of resource strings, like {@code \@} and {@code \'}. */
+  static String unescape(String value) {
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder out = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        out.append(c);
+        continue;
+      }
+      c = value.charAt(++i);
+      if (c == 'n') {
+        out.append('\n');
+      } else if (c == 't') {
+        out.append('\t');
+      } else if (c == 'u' && i + 4 < value.length()) {
+        out.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+        i += 4;
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: KeyboardCompiler <output dir> <layout.xml>...");
+      System.exit(1);
+    }
+    for (int i = 1; i < args.length; i++) {
+      File xml = new File(args[i]);
+      String name = xml.getName().replaceFirst("\\.xml$", "") + EXTENSION;
+      OutputStream out = new FileOutputStream(new File(args[0], name));
+      try {
+        compile(xml).write(out);
+      } finally {
+        out.close();
+      }
+    }
+  }
+}
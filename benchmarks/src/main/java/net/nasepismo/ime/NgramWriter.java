@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the binary file read by {@link NgramModel}.  Runs offline, from the
+ * benchmarks module, and is not part of the input method.
+ *
+ * <p>Run as a program, it compiles a UTF-8 list of bigram and trigram counts
+ * with one {@code words<TAB>count} pair per line, where the words are two or
+ * three words separated by spaces.  Words which are not in the dictionary are
+ * skipped, so the dictionary has to be built first; see the header of
+ * benchmarks/pom.xml.
+ *
+ * <pre>
+ *   java net.nasepismo.ime.NgramWriter assets/sr.dict ngrams.txt assets/sr.ngrams
+ * </pre>
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class NgramWriter {
+
+  /** How many successors are kept for each context. */
+  static final int MAX_SUCCESSORS = 32;
+
+  private static class Context {
+    final int previous;
+    final int last;
+    final Map<Integer, Long> counts = new HashMap<Integer, Long>();
+    long total;
+
+    Context(int previous, int last) {
+      this.previous = previous;
+      this.last = last;
+    }
+  }
+
+  private final Map<Long, Context> contexts = new HashMap<Long, Context>();
+
+  /**
+   * Adds {@code count} occurrences of {@code next} after the words
+   * {@code previous last}; {@code previous} is {@link NgramModel#NO_WORD} for
+   * a bigram.
+   */
+  public void add(int previous, int last, int next, long count) {
+    Long key = ((long) previous << 32) | (last & 0xffffffffL);
+    Context context = contexts.get(key);
+    if (context == null) {
+      context = new Context(previous, last);
+      contexts.put(key, context);
+    }
+    Long old = context.counts.get(next);
+    context.counts.put(next, old == null ? count : old + count);
+    context.total += count;
+  }
+
+  /**
+   * Maps the probability {@code count / total} to a score from 1 to 255, in
+   * steps of a sixteenth of a bit.
+   */
+  static int quantize(long count, long total) {
+    double bits = Math.log((double) count / total) / Math.log(2);
+    return Math.max(1, Math.min(255, 255 + (int) Math.round(bits * 16)));
+  }
+
+  /** Writes the model for a dictionary with {@code dictionaryNodeCount} nodes. */
+  public void write(OutputStream stream, int dictionaryNodeCount) throws IOException {
+    int bucketCount = 1;
+    while (bucketCount < contexts.size() * 2) {
+      bucketCount <<= 1;
+    }
+    Context[] buckets = new Context[bucketCount];
+    for (Context context : contexts.values()) {
+      int bucket = NgramModel.hash(context.previous, context.last) & (bucketCount - 1);
+      while (buckets[bucket] != null) {
+        bucket = (bucket + 1) & (bucketCount - 1);
+      }
+      buckets[bucket] = context;
+    }
+
+    // Sort each context's successors best first, and cap them.
+    List<int[]> successors = new ArrayList<int[]>(bucketCount);
+    int successorCount = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      int[] sorted = null;
+      if (buckets[i] != null) {
+        sorted = sortSuccessors(buckets[i]);
+        successorCount += sorted.length;
+      }
+      successors.add(sorted);
+    }
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(NgramModel.MAGIC);
+    out.writeInt(NgramModel.VERSION);
+    out.writeInt(dictionaryNodeCount);
+    out.writeInt(bucketCount);
+    out.writeInt(successorCount);
+    int first = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      Context context = buckets[i];
+      if (context == null) {
+        out.writeInt(NgramModel.NO_WORD);
+        out.writeInt(NgramModel.NO_WORD);
+        out.writeInt(0);
+        out.writeInt(0);
+      } else {
+        out.writeInt(context.previous);
+        out.writeInt(context.last);
+        out.writeInt(first);
+        out.writeInt(successors.get(i).length);
+        first += successors.get(i).length;
+      }
+    }
+    for (int[] sorted : successors) {
+      if (sorted != null) {
+        for (int successor : sorted) {
+          out.writeInt(successor);
+        }
+      }
+    }
+    out.flush();
+  }
+
+  private static int[] sortSuccessors(final Context context) {
+    List<Map.Entry<Integer, Long>> entries =
+        new ArrayList<Map.Entry<Integer, Long>>(context.counts.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Integer, Long>>() {
+      public int compare(Map.Entry<Integer, Long> a, Map.Entry<Integer, Long> b) {
+        int byCount = b.getValue().compareTo(a.getValue());
+        return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+      }
+    });
+    int[] sorted = new int[Math.min(entries.size(), MAX_SUCCESSORS)];
+    for (int i = 0; i < sorted.length; i++) {
+      Map.Entry<Integer, Long> entry = entries.get(i);
+      sorted[i] = (entry.getKey() << 8) | quantize(entry.getValue(), context.total);
+    }
+    return sorted;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: NgramWriter <dictionary.dict> <ngrams.txt> <output.ngrams>");
+      System.exit(1);
+    }
+    BinaryDictionary dictionary = BinaryDictionary.open(new File(args[0]));
+    NgramWriter writer = new NgramWriter();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(args[1]), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+          continue;
+        }
+        String[] words = line.substring(0, tab).trim().split(" +");
+        if (words.length < 2 || words.length > 3) {
+          continue;
+        }
+        int[] ids = new int[words.length];
+        boolean known = true;
+        for (int i = 0; i < words.length && known; i++) {
+          ids[i] = dictionary.findPrefix(words[i]);
+          known = ids[i] != BinaryDictionary.NOT_FOUND && dictionary.isWord(ids[i]);
+        }
+        if (!known) {
+          continue;
+        }
+        long count = Long.parseLong(line.substring(tab + 1).trim());
+        if (ids.length == 2) {
+          writer.add(NgramModel.NO_WORD, ids[0], ids[1], count);
+        } else {
+          writer.add(ids[0], ids[1], ids[2], count);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    OutputStream out = new FileOutputStream(args[2]);
+    try {
+      writer.write(out, dictionary.getNodeCount());
+    } finally {
+      out.close();
+    }
+  }
+}
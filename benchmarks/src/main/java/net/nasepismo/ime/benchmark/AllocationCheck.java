@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import net.nasepismo.ime.KeyHandler;
+import net.nasepismo.ime.KeyTrace;
+
+/**
+ * Replays a stored key trace through the {@link KeyHandler} that SoftKeyboard
+ * runs, by way of {@link HeadlessKeyboard}, and fails if, once warm, the key
+ * path allocates anything at all:
+ *
+ * <pre>
+ *   AllocationCheck baseline.trace
+ * </pre>
+ *
+ * <p>The path measured is the one on the device but for the platform: the
+ * handler with its caps mode read from the {@link net.nasepismo.ime.ShadowText},
+ * the {@link net.nasepismo.ime.CoalescingEditor} with the frame flushes it
+ * puts off, and the {@link net.nasepismo.ime.SuggestionWorker}, whose work
+ * runs on the replay clock on this same thread.  A replay which puts nothing
+ * off, or gets no suggestions back, has missed part of that path, and fails
+ * as well.
+ *
+ * <p>The trace is replayed as typed, and again with Latin letters converted
+ * to Cyrillic.  Bytes are counted by the JVM for the replaying thread alone,
+ * so other threads of the build do not disturb the count.  The first replays
+ * let the buffers grow to their working sizes and the compiler settle; a
+ * steady replay after that must allocate nothing.  Each steady replay is
+ * counted and printed on its own.  The JVM now and then allocates a few
+ * objects on the thread as it deoptimizes compiled code, so one of them may
+ * allocate up to {@link #NOISE_BYTES}; more than that, or any allocation in
+ * a second replay, fails the check.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class AllocationCheck {
+
+  private static final int WARMUP_REPLAYS = 5;
+  private static final int MEASURED_REPLAYS = 3;
+
+  /**
+   * The most one steady replay may allocate, for the JVM: a deoptimization
+   * was seen to take up to 368 bytes, while this is less than one small
+   * object for every hundred events of the baseline trace.
+   */
+  static final long NOISE_BYTES = 1024;
+
+  private AllocationCheck() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: AllocationCheck <trace>");
+      System.exit(2);
+    }
+    final KeyTrace trace;
+    InputStream stream = new BufferedInputStream(new FileInputStream(args[0]));
+    try {
+      trace = KeyTrace.read(stream);
+    } finally {
+      stream.close();
+    }
+    String failed = null;
+    for (boolean transliterate : new boolean[] {false, true}) {
+      final String name = transliterate ? "Transliterated" : "Plain";
+      if (!check(name, measure(trace, transliterate), trace.getEventCount())) {
+        failed = failed == null ? name : failed + ", " + name;
+      }
+    }
+    if (failed != null) {
+      throw new IllegalStateException("The key path allocated: " + failed);
+    }
+  }
+
+  /**
+   * Prints the bytes each steady replay allocated, and whether they pass.
+   *
+   * @return false if more than one replay allocated, or one allocated more
+   *     than {@link #NOISE_BYTES}
+   */
+  private static boolean check(String name, long[] allocated, long events) {
+    int allocating = 0;
+    long most = 0;
+    for (int i = 0; i < allocated.length; i++) {
+      System.out.printf("%s, replay %d: allocated %d bytes over %d events,"
+          + " %.2f bytes per event%n", name, i + 1, allocated[i], events,
+          (double) allocated[i] / events);
+      if (allocated[i] > 0) {
+        allocating++;
+      }
+      most = Math.max(most, allocated[i]);
+    }
+    return allocating <= 1 && most <= NOISE_BYTES;
+  }
+
+  /**
+   * Replays {@code trace} until warm, and returns the bytes allocated by each
+   * steady replay after that.
+   */
+  private static long[] measure(KeyTrace trace, boolean transliterate) {
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+    final FakeEditor editor = new FakeEditor();
+    final ReplayScheduler scheduler = new ReplayScheduler();
+    final HeadlessKeyboard keyboard = new HeadlessKeyboard(editor, scheduler);
+    keyboard.setTransliterate(transliterate);
+    final TraceReplayer replayer = new TraceReplayer(keyboard, editor, scheduler);
+    for (int i = 0; i < WARMUP_REPLAYS; i++) {
+      replayer.replay(trace);
+    }
+    replayer.clear();
+    final int delivered = keyboard.getSuggestionsDelivered();
+    final long[] allocated = new long[MEASURED_REPLAYS];
+    for (int i = 0; i < MEASURED_REPLAYS; i++) {
+      // Reading the count allocates nothing itself, as its result is a long.
+      final long before = threads.getThreadAllocatedBytes(thread);
+      replayer.replay(trace);
+      allocated[i] = threads.getThreadAllocatedBytes(thread) - before;
+    }
+    if (replayer.getDeferredCallsPerEvent() == 0) {
+      throw new IllegalStateException("The replay put no editor calls off to a frame flush");
+    }
+    if (keyboard.getSuggestionsDelivered() == delivered) {
+      throw new IllegalStateException("The replay got no suggestions from the worker");
+    }
+    return allocated;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nasepismo.ime.BinaryDictionary;
+import net.nasepismo.ime.SuggestionEngine;
+import net.nasepismo.ime.Suggestions;
+
+/**
+ * Candidate generation: completions, restored diacritics and typo corrections
+ * for a typed word, against a dictionary of {@link Fixtures#WORD_COUNT}
+ * words.  One operation is one word.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CandidateBenchmark {
+
+  /** As many suggestions as the input method asks for. */
+  private static final int CAPACITY = 16;
+
+  private SuggestionEngine engine;
+  private final Suggestions out = new Suggestions(CAPACITY);
+  private String[] words;
+  private int[] nodes;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    BinaryDictionary dictionary = Fixtures.dictionary();
+    engine = new SuggestionEngine(dictionary, null);
+    engine.setAdjacency(Fixtures.adjacency());
+    words = Fixtures.typedWords();
+    nodes = new int[words.length];
+    for (int i = 0; i < words.length; i++) {
+      nodes[i] = dictionary.findPrefix(words[i]);
+    }
+  }
+
+  @Benchmark
+  public int generate() {
+    final int i = next++ & (Fixtures.TYPED_COUNT - 1);
+    out.clear();
+    engine.generate(words[i], nodes[i], out);
+    return out.size();
+  }
+}
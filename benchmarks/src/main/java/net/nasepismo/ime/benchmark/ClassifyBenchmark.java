@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nasepismo.ime.CharacterTable;
+
+/**
+ * Separator classification: telling separators and letters apart, and
+ * changing case, for each key of a kilobyte of mixed Cyrillic and Latin text.
+ * One operation is the whole text.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifyBenchmark {
+
+  private static final String SAMPLE =
+      "Добар дан, како сте? Dobar dan, kako ste? Ђаци (и наставници) читају: "
+      + "\"Čiča Ćira\" -- 12 strana; šta još? Џеп, љиљан, њива & ž.\n";
+
+  private CharacterTable table;
+  private char[] text;
+
+  @Setup
+  public void setUp() {
+    table = new CharacterTable(Fixtures.SEPARATORS);
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < 1024) {
+      builder.append(SAMPLE);
+    }
+    text = builder.toString().toCharArray();
+  }
+
+  @Benchmark
+  public int classify() {
+    int result = 0;
+    for (char c : text) {
+      if (table.isSeparator(c)) {
+        result++;
+      } else if (table.isLetter(c)) {
+        result += table.toUpperCase(c);
+      }
+    }
+    return result;
+  }
+}
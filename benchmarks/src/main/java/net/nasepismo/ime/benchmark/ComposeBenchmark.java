@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nasepismo.ime.Composer;
+
+/**
+ * Composing: typing a word letter by letter, with the dictionary node kept up
+ * to date, then taking the last letter back.  One operation is one word.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComposeBenchmark {
+
+  /** Whether Latin is typed and converted to Cyrillic on the way. */
+  @Param({"false", "true"})
+  public boolean transliterate;
+
+  private Composer composer;
+  private String[] words;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    composer = new Composer(Fixtures.dictionary());
+    words = transliterate ? Fixtures.latinWords() : Fixtures.typedWords();
+  }
+
+  @Benchmark
+  public int composeWord() {
+    final String word = words[next++ & (Fixtures.TYPED_COUNT - 1)];
+    composer.clear();
+    for (int i = 0; i < word.length(); i++) {
+      composer.append(word.charAt(i), transliterate);
+    }
+    composer.deleteLast();
+    return composer.getNode();
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import net.nasepismo.ime.Editor;
+import net.nasepismo.ime.KeyHandler;
+import net.nasepismo.ime.ShadowText;
+
+/**
+ * The text of an editor, kept in memory, with the editing calls an input
+ * method makes on it.  Stands in for a real editor when key handling is
+ * replayed or measured off the device; each call is counted, as it would be
+ * a round trip to the editor's process, and a key down and up pair counts
+ * as two.
+ *
+ * <p>Positions follow the input connection: a cursor position above zero is
+ * relative to the end of the text inserted, and any other to its start.
+ * Nothing is allocated once the buffers have grown, and the text read back
+ * is a buffer which the next read reuses.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class FakeEditor implements Editor, TraceReplayer.CallCounter {
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder readText = new StringBuilder();
+  private final StringBuilder keyText = new StringBuilder(1);
+  /** Works out the caps mode, from the text before the cursor. */
+  private final ShadowText capsText = new ShadowText();
+  private int selectionStart;
+  private int selectionEnd;
+  private int composingStart = -1;
+  private int composingEnd = -1;
+  private int callCount;
+
+  /**
+   * Starts over with {@code length} spaces as the text, as traces record
+   * where the selection is but not the text around it.
+   */
+  public void reset(int length, int selectionStart, int selectionEnd) {
+    text.setLength(0);
+    for (int i = 0; i < length; i++) {
+      text.append(' ');
+    }
+    this.selectionStart = clamp(selectionStart);
+    this.selectionEnd = clamp(selectionEnd);
+    composingStart = -1;
+    composingEnd = -1;
+  }
+
+  public int getCallCount() {
+    return callCount;
+  }
+
+  public CharSequence getText() {
+    return text;
+  }
+
+  public int getSelectionStart() {
+    return selectionStart;
+  }
+
+  public int getSelectionEnd() {
+    return selectionEnd;
+  }
+
+  /** Where the composing text starts, or -1 if there is none. */
+  public int getComposingStart() {
+    return composingStart;
+  }
+
+  /** Where the composing text ends, or -1 if there is none. */
+  public int getComposingEnd() {
+    return composingEnd;
+  }
+
+  /**
+   * Handles a key which the input method let through, as the editor does
+   * on its own: the delete key deletes, and a key which types a character
+   * types it.  This is no call from the input method, and is not counted.
+   *
+   * @param c the character the key types, or 0 if it types none
+   */
+  public void handleKey(int keyCode, int c) {
+    if (keyCode == KeyHandler.KEYCODE_DEL) {
+      deleteBeforeCursor(1);
+    } else if (c != 0) {
+      keyText.setLength(0);
+      keyText.append((char) c);
+      replace(keyText, 1);
+      composingStart = -1;
+      composingEnd = -1;
+    }
+  }
+
+  public CharSequence getTextBeforeCursor(int n, int flags) {
+    callCount++;
+    return textBeforeCursor(n);
+  }
+
+  public int getCursorCapsMode(int reqModes) {
+    callCount++;
+    final int start = Math.min(selectionStart, selectionEnd);
+    capsText.seed(textBeforeCursor(ShadowText.CAPACITY), start);
+    return capsText.getCapsMode(reqModes);
+  }
+
+  public boolean setComposingText(CharSequence composing, int newCursorPosition) {
+    callCount++;
+    final int start = replace(composing, newCursorPosition);
+    composingStart = start;
+    composingEnd = start + composing.length();
+    return true;
+  }
+
+  public boolean commitText(CharSequence committed, int newCursorPosition) {
+    callCount++;
+    replace(committed, newCursorPosition);
+    composingStart = -1;
+    composingEnd = -1;
+    return true;
+  }
+
+  public boolean finishComposingText() {
+    callCount++;
+    composingStart = -1;
+    composingEnd = -1;
+    return true;
+  }
+
+  public boolean deleteSurroundingText(int leftLength, int rightLength) {
+    callCount++;
+    final int start = Math.min(selectionStart, selectionEnd);
+    final int end = Math.max(selectionStart, selectionEnd);
+    final int after = Math.min(text.length(), end + rightLength);
+    final int before = Math.max(0, start - leftLength);
+    text.delete(end, after);
+    text.delete(before, start);
+    selectionStart = before;
+    selectionEnd = before + end - start;
+    if (composingStart >= 0) {
+      composingStart = shift(composingStart, before, start, end, after);
+      composingEnd = shift(composingEnd, before, start, end, after);
+    }
+    return true;
+  }
+
+  public boolean beginBatchEdit() {
+    callCount++;
+    return true;
+  }
+
+  public boolean endBatchEdit() {
+    callCount++;
+    return true;
+  }
+
+  public boolean sendKeyDownUp(int keyCode, int c) {
+    callCount += 2;
+    handleKey(keyCode, c);
+    return true;
+  }
+
+  /** The text before the cursor, in a buffer which the next read reuses. */
+  private CharSequence textBeforeCursor(int n) {
+    final int start = Math.min(selectionStart, selectionEnd);
+    readText.setLength(0);
+    readText.append(text, Math.max(0, start - n), start);
+    return readText;
+  }
+
+  /** Deletes the selection, or else {@code count} characters before the cursor. */
+  private void deleteBeforeCursor(int count) {
+    int start = Math.min(selectionStart, selectionEnd);
+    final int end = Math.max(selectionStart, selectionEnd);
+    if (start == end) {
+      start = Math.max(0, start - count);
+    }
+    text.delete(start, end);
+    selectionStart = start;
+    selectionEnd = start;
+    composingStart = -1;
+    composingEnd = -1;
+  }
+
+  /**
+   * Replaces the composing text if there is any, else the selection, and
+   * places the cursor.
+   *
+   * @return where the new text starts
+   */
+  private int replace(CharSequence replacement, int newCursorPosition) {
+    int start;
+    int end;
+    if (composingStart >= 0) {
+      start = composingStart;
+      end = composingEnd;
+    } else {
+      start = Math.min(selectionStart, selectionEnd);
+      end = Math.max(selectionStart, selectionEnd);
+    }
+    text.delete(start, end);
+    text.insert(start, replacement);
+    final int cursor = clamp(newCursorPosition > 0
+        ? start + replacement.length() + newCursorPosition - 1
+        : start + newCursorPosition);
+    selectionStart = cursor;
+    selectionEnd = cursor;
+    return start;
+  }
+
+  private int clamp(int position) {
+    return Math.max(0, Math.min(text.length(), position));
+  }
+
+  /** Where {@code position} goes once [before, start) and [end, after) are cut. */
+  private static int shift(int position, int before, int start, int end, int after) {
+    if (position >= after) {
+      return position - (start - before) - (after - end);
+    } else if (position >= end) {
+      return end - (start - before);
+    } else if (position >= start) {
+      return position - (start - before);
+    }
+    return Math.min(position, before);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.nasepismo.ime.BinaryDictionary;
+import net.nasepismo.ime.DictionaryWriter;
+import net.nasepismo.ime.KeyAdjacency;
+import net.nasepismo.ime.Transliterator;
+
+/**
+ * Inputs shared by the benchmarks, built the same way on every run: a
+ * dictionary of made-up words with a skewed frequency distribution, and the
+ * words typed against it.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+final class Fixtures {
+
+  /** The word separators, as in res/values/strings.xml. */
+  static final String SEPARATORS = " .,;:!?\n()[]*&@{}/<>_+=|\"";
+
+  /** The letters of the Serbian Cyrillic and Latin alphabets. */
+  static final String LETTERS =
+      "абвгдђежзијклљмнњопрстћуфхцчџшabcčćdđefghijklmnoprsštuvzž";
+
+  /** The letter rows of the Cyrillic keyboard, as in res/xml/qwerty.xml. */
+  static final String[] KEY_ROWS = {
+      "љњертзуиопшђ", "асдфгхјклчћ", "жџцвбнм",
+  };
+
+  static final int WORD_COUNT = 50000;
+
+  /** How many typed words the benchmarks cycle through; a power of two. */
+  static final int TYPED_COUNT = 1024;
+
+  private static final String ALPHABET = "абвгдђежзијклљмнњопрстћуфхцчџш";
+  private static final long SEED = 20091;
+
+  private static List<String> words;
+  private static BinaryDictionary dictionary;
+
+  private Fixtures() {}
+
+  /** The words of the dictionary, most frequent first. */
+  static synchronized List<String> words() {
+    if (words == null) {
+      Random random = new Random(SEED);
+      words = new ArrayList<String>(WORD_COUNT);
+      StringBuilder word = new StringBuilder();
+      while (words.size() < WORD_COUNT) {
+        word.setLength(0);
+        final int length = 2 + random.nextInt(6) + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+          word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        words.add(word.toString());
+      }
+    }
+    return words;
+  }
+
+  static synchronized BinaryDictionary dictionary() {
+    if (dictionary == null) {
+      DictionaryWriter writer = new DictionaryWriter();
+      List<String> all = words();
+      for (int rank = 0; rank < all.size(); rank++) {
+        // Zipf's law, roughly: frequency falls with the rank.
+        writer.addWord(all.get(rank), DictionaryWriter.quantize(WORD_COUNT / (rank + 1), WORD_COUNT));
+      }
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        dictionary = BinaryDictionary.wrap(ByteBuffer.wrap(out.toByteArray()));
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return dictionary;
+  }
+
+  /**
+   * Words as typed: prefixes of dictionary words, favouring the frequent ones,
+   * and some with a letter replaced by a neighbouring one.
+   */
+  static String[] typedWords() {
+    Random random = new Random(SEED + 1);
+    List<String> all = words();
+    String[] typed = new String[TYPED_COUNT];
+    for (int i = 0; i < typed.length; i++) {
+      String word = all.get(Math.min(all.size() - 1, (int) Math.abs(random.nextGaussian() * 2000)));
+      String prefix = word.substring(0, 1 + random.nextInt(word.length()));
+      if (prefix.length() > 2 && random.nextInt(4) == 0) {
+        char[] chars = prefix.toCharArray();
+        int at = random.nextInt(chars.length);
+        chars[at] = neighbourOf(chars[at]);
+        prefix = new String(chars);
+      }
+      typed[i] = prefix;
+    }
+    return typed;
+  }
+
+  /** The typed words, spelled in Latin. */
+  static String[] latinWords() {
+    String[] typed = typedWords();
+    for (int i = 0; i < typed.length; i++) {
+      typed[i] = Transliterator.toLatin(typed[i]);
+    }
+    return typed;
+  }
+
+  /** Neighbouring keys: next to each other in a row, or in the same column. */
+  static KeyAdjacency adjacency() {
+    StringBuilder letters = new StringBuilder();
+    for (String row : KEY_ROWS) {
+      letters.append(row);
+    }
+    KeyAdjacency adjacency = new KeyAdjacency(letters);
+    for (int r = 0; r < KEY_ROWS.length; r++) {
+      final String row = KEY_ROWS[r];
+      for (int i = 0; i < row.length(); i++) {
+        if (i + 1 < row.length()) {
+          adjacency.setAdjacent(row.charAt(i), row.charAt(i + 1));
+        }
+        if (r + 1 < KEY_ROWS.length && i < KEY_ROWS[r + 1].length()) {
+          adjacency.setAdjacent(row.charAt(i), KEY_ROWS[r + 1].charAt(i));
+        }
+      }
+    }
+    return adjacency;
+  }
+
+  private static char neighbourOf(char c) {
+    for (String row : KEY_ROWS) {
+      final int i = row.indexOf(c);
+      if (i >= 0) {
+        return row.charAt(i + 1 < row.length() ? i + 1 : i - 1);
+      }
+    }
+    return c;
+  }
+}
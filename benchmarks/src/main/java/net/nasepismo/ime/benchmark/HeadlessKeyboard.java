@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import net.nasepismo.ime.BinaryDictionary;
+import net.nasepismo.ime.CandidateLayout;
+import net.nasepismo.ime.CharacterTable;
+import net.nasepismo.ime.CoalescingEditor;
+import net.nasepismo.ime.KeyHandler;
+import net.nasepismo.ime.KeyTimings;
+import net.nasepismo.ime.KeyTrace;
+import net.nasepismo.ime.ShadowText;
+import net.nasepismo.ime.SuggestionEngine;
+import net.nasepismo.ime.SuggestionWorker;
+import net.nasepismo.ime.Suggestions;
+import net.nasepismo.ime.TextMeasurer;
+
+/**
+ * The input method without Android: the events of a trace go to the same
+ * {@link KeyHandler} that SoftKeyboard runs, the way SoftKeyboard passes
+ * them on, and through a {@link CoalescingEditor} into a {@link FakeEditor}.
+ * Work put off to the end of a frame or to the suggestion worker runs when
+ * the {@link ReplayScheduler} is moved on, and the suggestions which arrive
+ * are laid out as the candidate view would.
+ *
+ * <p>What is left out is the keyboard on screen, which is always the letter
+ * keyboard here, the meta keys of the hard keyboard and the user dictionary.
+ * Hard keys stand for the Latin letters, digits and punctuation they are
+ * labelled with; keys the input method does not take are handled by the
+ * editor, as they would be by the application.  Key timings are on, so that
+ * their cost is part of the replay.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class HeadlessKeyboard implements KeyTrace.Listener, KeyHandler.Host,
+    SuggestionWorker.Generator, SuggestionWorker.Listener {
+
+  // The keys of the hard keyboard, as in android.view.KeyEvent.
+  static final int KEYCODE_0 = 7;
+  static final int KEYCODE_9 = 16;
+  static final int KEYCODE_A = 29;
+  static final int KEYCODE_Z = 54;
+  static final int KEYCODE_COMMA = 55;
+  static final int KEYCODE_PERIOD = 56;
+  static final int KEYCODE_SPACE = 62;
+
+  // The classes of input types, as in android.text.InputType.
+  private static final int TYPE_MASK_CLASS = 0xf;
+  private static final int TYPE_CLASS_TEXT = 1;
+  private static final int TYPE_CLASS_NUMBER = 2;
+  private static final int TYPE_CLASS_PHONE = 3;
+  private static final int TYPE_CLASS_DATETIME = 4;
+
+  private static final int MAX_COMPLETIONS = 16;
+  private static final int SCREEN_WIDTH = 480;
+  private static final int GAP = 10;
+  private static final float CHAR_WIDTH = 11.5f;
+
+  private final FakeEditor editor;
+  private final CoalescingEditor coalescing;
+  private final KeyHandler handler;
+  private final SuggestionWorker suggestionWorker;
+  private final SuggestionEngine engine;
+  private final CandidateLayout layout = new CandidateLayout(GAP);
+  private final TextMeasurer measurer = new TextMeasurer() {
+    public float measureText(char[] text, int start, int length) {
+      return length * CHAR_WIDTH;
+    }
+  };
+  /** The suggestions shown, or null. */
+  private Suggestions suggestions;
+  private boolean shifted;
+  /** How many lists of suggestions the worker has delivered. */
+  private int suggestionsDelivered;
+
+  HeadlessKeyboard(FakeEditor editor, ReplayScheduler scheduler) {
+    this.editor = editor;
+    final ShadowText shadow = new ShadowText();
+    final KeyTimings timings = new KeyTimings(true);
+    final BinaryDictionary dictionary = Fixtures.dictionary();
+    coalescing = new CoalescingEditor(editor, shadow, timings, scheduler);
+    engine = new SuggestionEngine(dictionary, null);
+    engine.setAdjacency(Fixtures.adjacency());
+    suggestionWorker = new SuggestionWorker(MAX_COMPLETIONS, this, this, scheduler, scheduler);
+    handler = new KeyHandler(this, new CharacterTable(Fixtures.SEPARATORS),
+        dictionary, suggestionWorker, shadow, timings, scheduler);
+  }
+
+  /** Whether Latin letters are converted to Cyrillic as they are typed. */
+  void setTransliterate(boolean transliterate) {
+    handler.setTransliterate(transliterate);
+  }
+
+  /** How many lists of suggestions the worker has delivered so far. */
+  int getSuggestionsDelivered() {
+    return suggestionsDelivered;
+  }
+
+  /** The key handling, as it stands. */
+  KeyHandler getHandler() {
+    return handler;
+  }
+
+  public void onStartInput(int inputType, int imeOptions, int initialSelStart,
+      int initialSelEnd, boolean restarting) {
+    editor.reset(Math.max(initialSelStart, initialSelEnd), initialSelStart, initialSelEnd);
+    final int inputClass = inputType & TYPE_MASK_CLASS;
+    handler.startInput(inputType, initialSelStart, initialSelEnd,
+        inputClass == TYPE_CLASS_TEXT, false);
+    if (inputClass != TYPE_CLASS_NUMBER && inputClass != TYPE_CLASS_PHONE
+        && inputClass != TYPE_CLASS_DATETIME) {
+      handler.updateShiftKeyState();
+    }
+  }
+
+  public void onFinishInput() {
+    handler.finishInput();
+  }
+
+  public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+      int candidatesStart, int candidatesEnd) {
+    handler.onUpdateSelection(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+  }
+
+  public void onKey(int primaryCode, int[] keyCodes) {
+    // The other keys with negative codes only act on the keyboard on screen.
+    if (primaryCode >= 0 || primaryCode == KeyHandler.KEYCODE_DELETE) {
+      handler.onKey(primaryCode, keyCodes);
+    }
+  }
+
+  public void onText(CharSequence text) {
+    handler.onText(text);
+  }
+
+  public void onKeyDown(int keyCode, int metaState, int repeatCount) {
+    if (keyCode == KeyHandler.KEYCODE_DEL) {
+      if (!handler.onDeleteKeyDown(repeatCount)) {
+        editor.handleKey(keyCode, 0);
+      }
+      return;
+    }
+    if (keyCode == KeyHandler.KEYCODE_ENTER) {
+      editor.handleKey(keyCode, '\n');
+      return;
+    }
+    final int c = toChar(keyCode);
+    if (!handler.isPredictionEnabled() || !handler.onHardKey(c, repeatCount > 0)) {
+      editor.handleKey(keyCode, c);
+    }
+  }
+
+  public void onKeyUp(int keyCode, int metaState) {
+    handler.onKeyUp();
+  }
+
+  /** The character a hard key types, without meta keys, or 0. */
+  private static int toChar(int keyCode) {
+    if (keyCode >= KEYCODE_A && keyCode <= KEYCODE_Z) {
+      return 'a' + keyCode - KEYCODE_A;
+    } else if (keyCode >= KEYCODE_0 && keyCode <= KEYCODE_9) {
+      return '0' + keyCode - KEYCODE_0;
+    }
+    switch (keyCode) {
+    case KEYCODE_COMMA:
+      return ',';
+    case KEYCODE_PERIOD:
+      return '.';
+    case KEYCODE_SPACE:
+      return ' ';
+    default:
+      return 0;
+    }
+  }
+
+  public CoalescingEditor getEditor() {
+    return coalescing;
+  }
+
+  public boolean isShifted() {
+    return shifted;
+  }
+
+  public boolean isLetterKeyboardShown() {
+    return true;
+  }
+
+  public void setShifted(boolean capsMode) {
+    shifted = capsMode;
+  }
+
+  /** The fixtures have no n-grams, so there is never a prediction to show. */
+  public void showPredictions() {
+    show(null);
+  }
+
+  public void onWordCommitted(CharSequence word) {
+  }
+
+  public void generate(CharSequence word, int node, Suggestions out) {
+    engine.generate(word, node, out);
+  }
+
+  public void onSuggestions(Suggestions suggestions) {
+    suggestionsDelivered++;
+    show(suggestions);
+  }
+
+  /** Lays out {@code shown}, and recycles the suggestions shown before. */
+  private void show(Suggestions shown) {
+    if (suggestions != null && suggestions != shown) {
+      suggestionWorker.recycle(suggestions);
+    }
+    suggestions = shown;
+    layout.clear();
+    if (shown != null) {
+      layout.layout(shown, SCREEN_WIDTH * 2, measurer);
+    }
+  }
+}
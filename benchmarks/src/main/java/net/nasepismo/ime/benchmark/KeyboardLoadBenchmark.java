@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nasepismo.ime.KeyboardCompiler;
+import net.nasepismo.ime.KeyboardLayout;
+
+/**
+ * Loading a keyboard layout: parsing its XML resource against reading the
+ * layout compiled from it.  Building the keys of the keyboard from the layout
+ * needs the platform, and is not part of this.  The layouts are read from
+ * the directory named by the {@code ime.root} system property, the checkout
+ * by default.  One operation is one layout.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardLoadBenchmark {
+
+  @Param({ "qwerty", "symbols", "symbols_shift" })
+  public String name;
+
+  private File xml;
+  private File compiled;
+
+  @Setup
+  public void setUp() {
+    File root = new File(System.getProperty("ime.root", ".."));
+    xml = new File(root, "res/xml/" + name + ".xml");
+    compiled = new File(root, "assets/" + name + ".kbd");
+  }
+
+  @Benchmark
+  public KeyboardLayout fromXml() throws Exception {
+    return KeyboardCompiler.compile(xml);
+  }
+
+  @Benchmark
+  public KeyboardLayout fromCompiled() throws Exception {
+    InputStream in = new FileInputStream(compiled);
+    try {
+      return KeyboardLayout.read(in);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nasepismo.ime.CandidateLayout;
+import net.nasepismo.ime.Suggestions;
+import net.nasepismo.ime.TextMeasurer;
+
+/**
+ * Layout of the candidate strip: placing a full list of suggestions over two
+ * screen widths, as the candidate view does for each new list.  Text is
+ * measured at a fixed width per character, which stands in for the paint and
+ * its cache.  One operation is one list.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+  private static final int SCREEN_WIDTH = 480;
+  private static final int GAP = 10;
+  private static final float CHAR_WIDTH = 11.5f;
+
+  private final CandidateLayout layout = new CandidateLayout(GAP);
+  private final Suggestions suggestions = new Suggestions(16);
+  private final TextMeasurer measurer = new TextMeasurer() {
+    public float measureText(char[] text, int start, int length) {
+      return length * CHAR_WIDTH;
+    }
+  };
+
+  @Setup
+  public void setUp() {
+    String[] words = Fixtures.typedWords();
+    for (int i = 0; i < 17; i++) {
+      suggestions.add(i, 0, words[i]);
+    }
+  }
+
+  @Benchmark
+  public int layOut() {
+    layout.clear();
+    layout.layout(suggestions, SCREEN_WIDTH * 2, measurer);
+    return layout.getTotalWidth() + layout.getIndexAt(SCREEN_WIDTH);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import net.nasepismo.ime.Scheduler;
+
+/**
+ * A {@link Scheduler} whose clock only moves when told to, so that a replay
+ * runs the work put off to the end of a frame at the times the trace says,
+ * however fast it goes.  Tasks run on the thread which moves the clock, in
+ * the order of their times and, at the same time, in the order posted.
+ * Nothing is allocated; the queue holds a fixed number of tasks.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class ReplayScheduler implements Scheduler {
+
+  private static final int CAPACITY = 16;
+
+  private final Runnable[] tasks = new Runnable[CAPACITY];
+  private final long[] times = new long[CAPACITY];
+  private int count;
+  private long now;
+
+  public long uptimeMillis() {
+    return now;
+  }
+
+  public void post(Runnable task) {
+    postAtTime(task, now);
+  }
+
+  public void postAtTime(Runnable task, long time) {
+    if (count == CAPACITY) {
+      throw new IllegalStateException("More than " + CAPACITY + " tasks queued");
+    }
+    tasks[count] = task;
+    times[count] = time;
+    count++;
+  }
+
+  public void removeCallbacks(Runnable task) {
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      if (tasks[i] != task) {
+        tasks[kept] = tasks[i];
+        times[kept] = times[i];
+        kept++;
+      }
+    }
+    for (int i = kept; i < count; i++) {
+      tasks[i] = null;
+    }
+    count = kept;
+  }
+
+  /** Whether any task is queued. */
+  public boolean hasTasks() {
+    return count > 0;
+  }
+
+  /** The time the first queued task is due, or Long.MAX_VALUE if there is none. */
+  public long getNextTime() {
+    long next = Long.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      next = Math.min(next, times[i]);
+    }
+    return next;
+  }
+
+  /**
+   * Moves the clock on to {@code time}, if it is not there already, running
+   * the tasks which come due on the way, and those they post which do.
+   */
+  public void advanceTo(long time) {
+    while (true) {
+      int next = -1;
+      for (int i = 0; i < count; i++) {
+        if (times[i] <= time && (next < 0 || times[i] < times[next])) {
+          next = i;
+        }
+      }
+      if (next < 0) {
+        break;
+      }
+      final Runnable task = tasks[next];
+      now = Math.max(now, times[next]);
+      count--;
+      System.arraycopy(tasks, next + 1, tasks, next, count - next);
+      System.arraycopy(times, next + 1, times, next, count - next);
+      tasks[count] = null;
+      task.run();
+    }
+    now = Math.max(now, time);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.Random;
+
+import net.nasepismo.ime.KeyTrace;
+
+/**
+ * A recorded session: each event goes into the trace and the keyboard, and
+ * is followed by a selection update if it moved the selection or changed
+ * the composing text.  The trace is recorded against the clock of the
+ * keyboard, which moves on by the time between the keys, so that the work
+ * the keyboard puts off runs as it would on the device; what that work
+ * changes in the editor is reported right after it, too.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class Session {
+
+  /**
+   * The input type of the editor typed into: text, capitalizing sentences,
+   * as in android.text.InputType.
+   */
+  static final int INPUT_TYPE = 0x4001;
+
+  /** The fewest and most milliseconds between two keys. */
+  static final int MIN_PAUSE_MS = 80;
+  static final int MAX_PAUSE_MS = 250;
+
+  /** The milliseconds between the repeats of a key held down. */
+  static final int REPEAT_MS = 50;
+
+  final Random random;
+  final ReplayScheduler scheduler = new ReplayScheduler();
+  final FakeEditor editor = new FakeEditor();
+  final HeadlessKeyboard keyboard = new HeadlessKeyboard(editor, scheduler);
+  final KeyTrace trace = new KeyTrace(KeyTrace.DEFAULT_CAPACITY) {
+    @Override
+    protected long now() {
+      return scheduler.uptimeMillis();
+    }
+  };
+  private int selectionStart;
+  private int selectionEnd;
+  private int composingStart = -1;
+  private int composingEnd = -1;
+
+  /** @param random picks the time between keys */
+  Session(Random random) {
+    this.random = random;
+  }
+
+  void startInput() {
+    trace.recordStartInput(INPUT_TYPE, 0, 0, 0, false);
+    keyboard.onStartInput(INPUT_TYPE, 0, 0, 0, false);
+  }
+
+  void finishInput() {
+    pause(MAX_PAUSE_MS);
+    trace.recordFinishInput();
+    keyboard.onFinishInput();
+  }
+
+  /** Types a soft key, at the pace of a quick typist. */
+  void key(int code) {
+    key(code, MIN_PAUSE_MS + random.nextInt(MAX_PAUSE_MS - MIN_PAUSE_MS));
+  }
+
+  /** Types a soft key {@code pauseMs} after the last event. */
+  void key(int code, int pauseMs) {
+    pause(pauseMs);
+    trace.recordKey(code, new int[] {code});
+    keyboard.onKey(code, new int[] {code});
+    reportSelection();
+  }
+
+  /** Presses a hard key, holding it for {@code repeats} auto-repeats. */
+  void hardKey(int keyCode, int repeats) {
+    keyDown(keyCode, 0, MIN_PAUSE_MS + random.nextInt(MAX_PAUSE_MS - MIN_PAUSE_MS));
+    for (int repeat = 1; repeat <= repeats; repeat++) {
+      keyDown(keyCode, repeat, REPEAT_MS);
+    }
+    keyUp(keyCode, MIN_PAUSE_MS);
+  }
+
+  /** Presses a hard key, or repeats it, {@code pauseMs} after the last event. */
+  void keyDown(int keyCode, int repeat, int pauseMs) {
+    pause(pauseMs);
+    trace.recordKeyDown(keyCode, 0, repeat);
+    keyboard.onKeyDown(keyCode, 0, repeat);
+    reportSelection();
+  }
+
+  /** Lets a hard key go, {@code pauseMs} after the last event. */
+  void keyUp(int keyCode, int pauseMs) {
+    pause(pauseMs);
+    trace.recordKeyUp(keyCode, 0);
+    keyboard.onKeyUp(keyCode, 0);
+    reportSelection();
+  }
+
+  /** Lets {@code ms} pass, running what the keyboard put off. */
+  void pause(int ms) {
+    final long end = scheduler.uptimeMillis() + ms;
+    while (scheduler.getNextTime() <= end) {
+      scheduler.advanceTo(scheduler.getNextTime());
+      reportSelection();
+    }
+    scheduler.advanceTo(end);
+  }
+
+  private void reportSelection() {
+    if (editor.getSelectionStart() == selectionStart
+        && editor.getSelectionEnd() == selectionEnd
+        && editor.getComposingStart() == composingStart
+        && editor.getComposingEnd() == composingEnd) {
+      return;
+    }
+    trace.recordSelection(selectionStart, selectionEnd,
+        editor.getSelectionStart(), editor.getSelectionEnd(),
+        editor.getComposingStart(), editor.getComposingEnd());
+    keyboard.onUpdateSelection(selectionStart, selectionEnd,
+        editor.getSelectionStart(), editor.getSelectionEnd(),
+        editor.getComposingStart(), editor.getComposingEnd());
+    selectionStart = editor.getSelectionStart();
+    selectionEnd = editor.getSelectionEnd();
+    composingStart = editor.getComposingStart();
+    composingEnd = editor.getComposingEnd();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.nasepismo.ime.Composer;
+
+/**
+ * Types sessions which are timed so as to test the coalescing of editor
+ * calls, and fails if one of them loses the composing text:
+ *
+ * <pre>
+ *   SessionCheck
+ * </pre>
+ *
+ * <p>A session must leave the word being typed composing in the editor
+ * after each letter, as seen through the selection updates the editor
+ * sends back; and replaying its trace must leave the same text in the
+ * editor as typing it did.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class SessionCheck {
+
+  /** The milliseconds between keys typed faster than a frame. */
+  private static final int FAST_MS = 5;
+
+  private SessionCheck() {}
+
+  public static void main(String[] args) {
+    final List<String> failures = new ArrayList<String>();
+    checkFastTyping(failures);
+    checkRepeatsAfterFastTyping(failures);
+    if (!failures.isEmpty()) {
+      for (String failure : failures) {
+        System.out.println("FAILED: " + failure);
+      }
+      throw new IllegalStateException(failures.size() + " sessions failed");
+    }
+  }
+
+  /**
+   * Types a word well past {@link Composer#MAX_LENGTH}, faster than a
+   * frame, so that each head of it is committed while the composing text of
+   * the letter before is still held back.
+   */
+  private static void checkFastTyping(List<String> failures) {
+    final String name = "fast typing";
+    final Session session = new Session(new Random(1));
+    session.startInput();
+    for (int i = 0; i < 3 * Composer.MAX_LENGTH; i++) {
+      session.key(Fixtures.LETTERS.charAt(i % 30), FAST_MS);
+      if (!checkComposing(session, name + ", letter " + (i + 1), failures)) {
+        break;
+      }
+    }
+    session.finishInput();
+    checkReplay(session, name, failures);
+  }
+
+  /**
+   * Holds a hard letter key down while the word grows towards
+   * {@link Composer#MAX_LENGTH}, with two quick soft letters just before the
+   * repeat which takes it past, so that the repeats commit a head of the
+   * word while the composing text of the soft letters is still held back.
+   */
+  private static void checkRepeatsAfterFastTyping(List<String> failures) {
+    final String name = "repeats after fast typing";
+    final Session session = new Session(new Random(1));
+    session.startInput();
+    int letters = 0;
+    while (letters < Composer.MAX_LENGTH - 8) {
+      session.key(Fixtures.LETTERS.charAt(letters++ % 30), Session.MIN_PAUSE_MS);
+    }
+    session.keyDown(HeadlessKeyboard.KEYCODE_A, 0, Session.MIN_PAUSE_MS);
+    for (int repeat = 1; repeat <= 5; repeat++) {
+      session.keyDown(HeadlessKeyboard.KEYCODE_A, repeat, Session.REPEAT_MS);
+    }
+    // The soft letters come 40 and 45 ms into the 50 ms to the next repeat,
+    // which finds the word at MAX_LENGTH.
+    session.key(Fixtures.LETTERS.charAt(letters++ % 30), Session.REPEAT_MS - 10);
+    session.key(Fixtures.LETTERS.charAt(letters++ % 30), FAST_MS);
+    for (int repeat = 6; repeat <= 3 * Composer.MAX_LENGTH; repeat++) {
+      session.keyDown(HeadlessKeyboard.KEYCODE_A, repeat,
+          repeat == 6 ? Session.REPEAT_MS - 45 : Session.REPEAT_MS);
+      if (!checkComposing(session, name + ", repeat " + repeat, failures)) {
+        break;
+      }
+    }
+    session.keyUp(HeadlessKeyboard.KEYCODE_A, Session.MIN_PAUSE_MS);
+    session.finishInput();
+    checkReplay(session, name, failures);
+  }
+
+  /**
+   * Checks that the keyboard is composing, and that the editor holds
+   * composing text which ends at the cursor.
+   *
+   * @return whether it does
+   */
+  private static boolean checkComposing(Session session, String name, List<String> failures) {
+    final FakeEditor editor = session.editor;
+    if (!session.keyboard.getHandler().isComposing()) {
+      failures.add(name + ": the keyboard is no longer composing");
+      return false;
+    }
+    if (editor.getComposingStart() < 0
+        || editor.getComposingStart() == editor.getComposingEnd()
+        || editor.getComposingEnd() != editor.getSelectionEnd()) {
+      failures.add(name + ": the editor's composing text is at " + editor.getComposingStart()
+          + "-" + editor.getComposingEnd() + " with the cursor at " + editor.getSelectionEnd());
+      return false;
+    }
+    return true;
+  }
+
+  /** Checks that replaying the session's trace types the same text. */
+  private static void checkReplay(Session session, String name, List<String> failures) {
+    final FakeEditor editor = new FakeEditor();
+    final ReplayScheduler scheduler = new ReplayScheduler();
+    new TraceReplayer(new HeadlessKeyboard(editor, scheduler), editor, scheduler)
+        .replay(session.trace);
+    final String typed = session.editor.getText().toString();
+    final String replayed = editor.getText().toString();
+    if (!typed.equals(replayed)) {
+      failures.add(name + ": the replay typed \"" + replayed + "\", not \"" + typed + "\"");
+    }
+  }
+}
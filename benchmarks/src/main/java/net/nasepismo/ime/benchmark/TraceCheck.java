@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import net.nasepismo.ime.KeyHandler;
+import net.nasepismo.ime.KeyTrace;
+import net.nasepismo.ime.LatencyHistogram;
+
+/**
+ * Replays a stored key trace through {@link HeadlessKeyboard}, and so through
+ * the key handling the service runs, and compares the result with a stored
+ * baseline, failing when it has regressed:
+ *
+ * <pre>
+ *   TraceCheck check baseline.trace baseline.properties
+ *   TraceCheck record baseline.trace baseline.properties
+ *   TraceCheck replay keys.trace
+ * </pre>
+ *
+ * <p>{@code replay} only prints the replay of a trace, such as one saved on
+ * a device by the {@code save-trace} argument of the service's dump.
+ *
+ * <p>{@code record} writes a new trace, typed from the benchmark fixtures as
+ * a user would type it into an editor which reports each change of the
+ * selection, and takes its replay as the new baseline.
+ *
+ * <p>A replay regresses if any type of event, or the work put off, makes more
+ * editor calls than in the baseline, which is exact, or if the 90th
+ * percentile of the latency of any type of event is worse by more than the
+ * tolerance, which allows for running on a different machine.  The
+ * latencies compared are the median over several replays, each measured on
+ * its own, so that a pause of the collector or of the machine in one replay
+ * does not fail the check.
+ *
+ * <p>The other percentiles and the throughput are stored for reference only.
+ * The 50th percentile is mostly below the grain of the clock, and the 99th
+ * rests on too few events per replay.  The throughput is taken over the
+ * whole of a replay, so it falls with any other work on the machine, where
+ * a single event is short enough to run between the other work.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class TraceCheck {
+
+  /** How many times worse the latencies may be than the baseline. */
+  static final double TOLERANCE = 3.0;
+
+  /**
+   * A latency up to this many microseconds is never a regression, as below
+   * it a stall of the machine moves the percentiles by more than the
+   * tolerance.
+   */
+  static final long LATENCY_FLOOR_US = 10;
+
+  private static final int WARMUP_REPLAYS = 5;
+
+  /** The replays measured, an odd number so that each measure has a median. */
+  private static final int MEASURED_REPLAYS = 5;
+
+  /** The words typed into the recorded trace. */
+  private static final int TYPED_WORDS = 400;
+
+  /** Orders the measures of a replay by their value. */
+  private static final Comparator<String> BY_VALUE = new Comparator<String>() {
+    public int compare(String a, String b) {
+      return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+    }
+  };
+
+  private TraceCheck() {}
+
+  public static void main(String[] args) throws IOException {
+    final boolean replayOnly = args.length == 2 && args[0].equals("replay");
+    if (!replayOnly
+        && (args.length != 3 || !(args[0].equals("check") || args[0].equals("record")))) {
+      System.err.println("Usage: TraceCheck check|record <trace> <baseline>");
+      System.err.println("       TraceCheck replay <trace>");
+      System.exit(2);
+    }
+    final PrintWriter out = new PrintWriter(System.out, true);
+    if (args[0].equals("record")) {
+      KeyTrace trace = record();
+      OutputStream stream = new BufferedOutputStream(new FileOutputStream(args[1]));
+      try {
+        trace.write(stream);
+      } finally {
+        stream.close();
+      }
+      final Properties replay = replay(trace, out);
+      stream = new FileOutputStream(args[2]);
+      try {
+        replay.store(stream, "Median replay of " + args[1]);
+      } finally {
+        stream.close();
+      }
+      return;
+    }
+
+    final KeyTrace trace;
+    InputStream stream = new BufferedInputStream(new FileInputStream(args[1]));
+    try {
+      trace = KeyTrace.read(stream);
+    } finally {
+      stream.close();
+    }
+    if (replayOnly) {
+      out.println("Replaying " + trace.getEventCount() + " events over " + trace.getDuration()
+          + " ms:");
+      replay(trace, out);
+      return;
+    }
+    final Properties baseline = new Properties();
+    stream = new FileInputStream(args[2]);
+    try {
+      baseline.load(stream);
+    } finally {
+      stream.close();
+    }
+    out.println("Replaying " + trace.getEventCount() + " events:");
+    List<String> regressions = compare(replay(trace, out), baseline);
+    if (!regressions.isEmpty()) {
+      for (String regression : regressions) {
+        out.println("REGRESSION: " + regression);
+      }
+      throw new IllegalStateException(regressions.size() + " regressions against " + args[2]);
+    }
+  }
+
+  /**
+   * Replays {@code trace} until warm, and then {@link #MEASURED_REPLAYS}
+   * times more, each measured and printed on its own.
+   *
+   * @return the median of each measure over the measured replays
+   */
+  static Properties replay(KeyTrace trace, PrintWriter out) {
+    final FakeEditor editor = new FakeEditor();
+    final ReplayScheduler scheduler = new ReplayScheduler();
+    final TraceReplayer replayer =
+        new TraceReplayer(new HeadlessKeyboard(editor, scheduler), editor, scheduler);
+    for (int i = 0; i < WARMUP_REPLAYS; i++) {
+      replayer.replay(trace);
+    }
+    final List<Properties> replays = new ArrayList<Properties>();
+    for (int i = 0; i < MEASURED_REPLAYS; i++) {
+      replayer.clear();
+      replayer.replay(trace);
+      out.println("  replay " + (i + 1) + ":");
+      replayer.print(out, "    ");
+      replays.add(toProperties(replayer));
+    }
+    return median(replays);
+  }
+
+  /** The median of each measure over an odd number of {@code replays}. */
+  static Properties median(List<Properties> replays) {
+    final Properties median = new Properties();
+    final String[] values = new String[replays.size()];
+    for (String key : replays.get(0).stringPropertyNames()) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = replays.get(i).getProperty(key);
+      }
+      Arrays.sort(values, BY_VALUE);
+      median.setProperty(key, values[values.length / 2]);
+    }
+    return median;
+  }
+
+  static Properties toProperties(TraceReplayer replayer) {
+    Properties properties = new Properties();
+    properties.setProperty("throughput", format(replayer.getThroughput()));
+    properties.setProperty("deferred.calls", format(replayer.getDeferredCallsPerEvent()));
+    for (int type = 0; type < KeyTrace.NAMES.length; type++) {
+      final LatencyHistogram latencies = replayer.getLatencies(type);
+      if (latencies.getCount() > 0) {
+        final String name = KeyTrace.NAMES[type];
+        properties.setProperty(name + ".calls", format(replayer.getCallsPerEvent(type)));
+        properties.setProperty(name + ".p50", String.valueOf(latencies.getPercentile(50)));
+        properties.setProperty(name + ".p90", String.valueOf(latencies.getPercentile(90)));
+        properties.setProperty(name + ".p99", String.valueOf(latencies.getPercentile(99)));
+      }
+    }
+    return properties;
+  }
+
+  /** Lists the ways in which {@code actual} is worse than {@code baseline}. */
+  static List<String> compare(Properties actual, Properties baseline) {
+    List<String> regressions = new ArrayList<String>();
+    final String deferredCalls = actual.getProperty("deferred.calls");
+    final String baseDeferredCalls = baseline.getProperty("deferred.calls");
+    if (Double.parseDouble(deferredCalls) > Double.parseDouble(baseDeferredCalls)) {
+      regressions.add("deferred editor calls " + deferredCalls + ", was " + baseDeferredCalls);
+    }
+    for (String name : KeyTrace.NAMES) {
+      final String baseCalls = baseline.getProperty(name + ".calls");
+      if (baseCalls == null) {
+        continue;
+      }
+      final String calls = actual.getProperty(name + ".calls", "0");
+      if (Double.parseDouble(calls) > Double.parseDouble(baseCalls)) {
+        regressions.add(name + " editor calls " + calls + ", was " + baseCalls);
+      }
+      final String key = name + ".p90";
+      final long latency = Long.parseLong(actual.getProperty(key, "0"));
+      final long baseLatency = Long.parseLong(baseline.getProperty(key));
+      if (latency > LATENCY_FLOOR_US && latency > baseLatency * TOLERANCE) {
+        regressions.add(key + " " + latency + "us, was " + baseLatency + "us");
+      }
+    }
+    return regressions;
+  }
+
+  /**
+   * Types {@link #TYPED_WORDS} words into a fresh editor, recording the keys
+   * along with the selection updates the editor would send back.  Some words
+   * come with a typo which is then deleted, some are typed on the hard
+   * keyboard, some are a hard key held down, and sentences end in a full
+   * stop.  Keys come at the pace of a quick typist, and held keys repeat at
+   * the rate of the platform.
+   */
+  static KeyTrace record() {
+    final Random random = new Random(20092);
+    final Session session = new Session(random);
+    final String[] words = Fixtures.typedWords();
+    final String[] latin = Fixtures.latinWords();
+    session.startInput();
+    for (int i = 0; i < TYPED_WORDS; i++) {
+      final int choice = random.nextInt(16);
+      if (choice == 0 && isAscii(latin[i])) {
+        for (int j = 0; j < latin[i].length(); j++) {
+          session.hardKey(HeadlessKeyboard.KEYCODE_A + latin[i].charAt(j) - 'a', 0);
+        }
+      } else if (choice == 2) {
+        // A hard key held down, then the delete key.
+        session.hardKey(HeadlessKeyboard.KEYCODE_A + random.nextInt(26), 10 + random.nextInt(60));
+        session.hardKey(KeyHandler.KEYCODE_DEL, random.nextInt(20));
+      } else {
+        final String word = words[i];
+        for (int j = 0; j < word.length(); j++) {
+          session.key(word.charAt(j));
+          if (choice == 1 && j == word.length() / 2) {
+            session.key(Fixtures.LETTERS.charAt(random.nextInt(30)));
+            session.key(KeyHandler.KEYCODE_DELETE);
+          }
+        }
+      }
+      session.key(random.nextInt(8) == 0 ? '.' : ' ');
+    }
+    session.finishInput();
+    return session.trace;
+  }
+
+  private static boolean isAscii(String word) {
+    for (int i = 0; i < word.length(); i++) {
+      if (word.charAt(i) < 'a' || word.charAt(i) > 'z') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.US, "%.3f", value);
+  }
+}
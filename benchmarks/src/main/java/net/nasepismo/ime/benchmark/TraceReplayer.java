@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime.benchmark;
+
+import java.io.PrintWriter;
+
+import net.nasepismo.ime.KeyTrace;
+import net.nasepismo.ime.LatencyHistogram;
+
+/**
+ * Plays a {@link KeyTrace} into an input method, timing each event and
+ * counting the calls it makes into the editor, by event type.
+ *
+ * <p>The replayer stands between the trace and the input method, so that it
+ * can be given to {@link KeyTrace#play} directly.  Before each event it
+ * moves the scheduler's clock on to the time of the event in the trace, so
+ * that the work the input method put off runs as it would have; the calls
+ * that work makes are counted apart, as deferred.  The counts add up over
+ * any number of replays, until {@link #clear}.  It must be used on the
+ * thread the input method runs on.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class TraceReplayer implements KeyTrace.Listener {
+
+  /** Counts the calls made into an editor. */
+  interface CallCounter {
+    /** The calls made so far. */
+    int getCallCount();
+  }
+
+  /** How long the clock moves on after a replay, for the work put off to run. */
+  private static final long SETTLE_MS = 1000;
+
+  private final KeyTrace.Listener target;
+  private final CallCounter editor;
+  private final ReplayScheduler scheduler;
+  private final LatencyHistogram[] latencies = new LatencyHistogram[KeyTrace.NAMES.length];
+  private final long[] callCounts = new long[KeyTrace.NAMES.length];
+  private long deferredCallCount;
+  private long elapsed;
+
+  // The trace being replayed, and the time of its first event.
+  private KeyTrace trace;
+  private long startTime;
+
+  /**
+   * @param target the input method, which gets the events
+   * @param editor counts the calls the input method makes for each event
+   * @param scheduler the clock and queue of the input method
+   */
+  public TraceReplayer(KeyTrace.Listener target, CallCounter editor,
+      ReplayScheduler scheduler) {
+    this.target = target;
+    this.editor = editor;
+    this.scheduler = scheduler;
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Plays all of {@code trace} into the input method. */
+  public void replay(KeyTrace trace) {
+    this.trace = trace;
+    startTime = scheduler.uptimeMillis() + SETTLE_MS;
+    final long start = System.nanoTime();
+    trace.play(this);
+    advanceTo(scheduler.uptimeMillis() + SETTLE_MS);
+    elapsed += System.nanoTime() - start;
+    this.trace = null;
+  }
+
+  /** The latencies of the events of {@code type}. */
+  public LatencyHistogram getLatencies(int type) {
+    return latencies[type];
+  }
+
+  /** The number of events of all types replayed. */
+  public long getEventCount() {
+    long count = 0;
+    for (LatencyHistogram histogram : latencies) {
+      count += histogram.getCount();
+    }
+    return count;
+  }
+
+  /** The average number of editor calls made for an event of {@code type}. */
+  public double getCallsPerEvent(int type) {
+    final long count = latencies[type].getCount();
+    return count == 0 ? 0 : (double) callCounts[type] / count;
+  }
+
+  /**
+   * The average number of editor calls made by the work put off, per event
+   * of any type.
+   */
+  public double getDeferredCallsPerEvent() {
+    final long count = getEventCount();
+    return count == 0 ? 0 : (double) deferredCallCount / count;
+  }
+
+  /** The events replayed per second, over the time spent replaying. */
+  public double getThroughput() {
+    return elapsed == 0 ? 0 : getEventCount() * 1e9 / elapsed;
+  }
+
+  public void clear() {
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i].clear();
+      callCounts[i] = 0;
+    }
+    deferredCallCount = 0;
+    elapsed = 0;
+  }
+
+  /**
+   * Prints the throughput, and for each type of event replayed, the
+   * percentiles of its latency and the editor calls it made, and the calls
+   * of the work put off.
+   */
+  public void print(PrintWriter out, String prefix) {
+    out.printf("%sevents: %d, %.0f/s%n", prefix, getEventCount(), getThroughput());
+    out.printf("%sdeferred: calls=%.2f per event%n", prefix, getDeferredCallsPerEvent());
+    for (int type = 0; type < latencies.length; type++) {
+      final LatencyHistogram histogram = latencies[type];
+      if (histogram.getCount() > 0) {
+        out.printf("%s%s: n=%d p50=%dus p90=%dus p99=%dus max=%dus calls=%.2f%n",
+            prefix, KeyTrace.NAMES[type], histogram.getCount(),
+            histogram.getPercentile(50), histogram.getPercentile(90),
+            histogram.getPercentile(99), histogram.getMax(), getCallsPerEvent(type));
+      }
+    }
+  }
+
+  public void onKey(int primaryCode, int[] keyCodes) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onKey(primaryCode, keyCodes);
+    done(KeyTrace.KEY, start, calls);
+  }
+
+  public void onText(CharSequence text) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onText(text);
+    done(KeyTrace.TEXT, start, calls);
+  }
+
+  public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+      int candidatesStart, int candidatesEnd) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
+        candidatesStart, candidatesEnd);
+    done(KeyTrace.SELECTION, start, calls);
+  }
+
+  public void onStartInput(int inputType, int imeOptions, int initialSelStart,
+      int initialSelEnd, boolean restarting) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onStartInput(inputType, imeOptions, initialSelStart, initialSelEnd, restarting);
+    done(KeyTrace.START_INPUT, start, calls);
+  }
+
+  public void onFinishInput() {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onFinishInput();
+    done(KeyTrace.FINISH_INPUT, start, calls);
+  }
+
+  public void onKeyDown(int keyCode, int metaState, int repeatCount) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onKeyDown(keyCode, metaState, repeatCount);
+    done(KeyTrace.KEY_DOWN, start, calls);
+  }
+
+  public void onKeyUp(int keyCode, int metaState) {
+    final int calls = beforeEvent();
+    final long start = System.nanoTime();
+    target.onKeyUp(keyCode, metaState);
+    done(KeyTrace.KEY_UP, start, calls);
+  }
+
+  /**
+   * Moves the clock on to the time of the event being played.
+   *
+   * @return the editor calls made so far
+   */
+  private int beforeEvent() {
+    advanceTo(startTime + trace.getPlayTime());
+    return editor.getCallCount();
+  }
+
+  private void advanceTo(long time) {
+    final int calls = editor.getCallCount();
+    scheduler.advanceTo(time);
+    deferredCallCount += editor.getCallCount() - calls;
+  }
+
+  private void done(int type, long start, int calls) {
+    latencies[type].record(System.nanoTime() - start);
+    callCounts[type] += editor.getCallCount() - calls;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only word list, stored as a compact trie in a binary file which is
+ * memory-mapped rather than loaded.  The words never live on the Java heap:
+ * the pages are shared through the page cache and the kernel is free to drop
+ * them under memory pressure.
+ *
+ * <p>The file starts with a header of three big-endian ints: the magic number,
+ * the format version and the node count.  It is followed by the nodes, in
+ * breadth-first order, as fixed-size records of {@link #NODE_SIZE} bytes:
+ *
+ * <pre>
+ *   0  char  the letter on the edge leading into this node
+ *   2  byte  frequency of the word ending here, 1-255; 0 if none does
+ *   3  byte  highest frequency of any word in this subtree
+ *   4  int   index of the first child; the children are contiguous and
+ *            sorted by letter
+ *   8  int   index of the parent (upper 24 bits) and child count (lower 8)
+ * </pre>
+ *
+ * The root is node 0.  Since every word ends at a distinct node, the node
+ * index doubles as a stable word id.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class BinaryDictionary {
+
+  static final int MAGIC = 0x53524431; // "SRD1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 12;
+  static final int NODE_SIZE = 12;
+
+  /** Longest word that the dictionary will store or return. */
+  public static final int MAX_WORD_LENGTH = 48;
+
+  public static final int ROOT = 0;
+  public static final int NOT_FOUND = -1;
+
+  private final ByteBuffer buffer;
+  private final int nodeCount;
+
+  private BinaryDictionary(ByteBuffer buffer, int nodeCount) {
+    this.buffer = buffer;
+    this.nodeCount = nodeCount;
+  }
+
+  /**
+   * Maps the dictionary in the given file.  The mapping stays valid after the
+   * file is closed.
+   */
+  public static BinaryDictionary open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Wraps an already mapped (or, for tools, heap) buffer holding a dictionary.
+   */
+  public static BinaryDictionary wrap(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a dictionary file");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported dictionary version: " + buffer.getInt(4));
+    }
+    int nodeCount = buffer.getInt(8);
+    if (nodeCount < 1 || (long) nodeCount * NODE_SIZE + HEADER_SIZE > buffer.capacity()) {
+      throw new IOException("Truncated dictionary file");
+    }
+    return new BinaryDictionary(buffer, nodeCount);
+  }
+
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  private static int offset(int node) {
+    return HEADER_SIZE + node * NODE_SIZE;
+  }
+
+  /** The letter on the edge leading into {@code node}. */
+  public char getChar(int node) {
+    return buffer.getChar(offset(node));
+  }
+
+  /** The frequency of the word ending at {@code node}, or 0 if none does. */
+  public int getFrequency(int node) {
+    return buffer.get(offset(node) + 2) & 0xff;
+  }
+
+  /** Whether a word ends at {@code node}. */
+  public boolean isWord(int node) {
+    return getFrequency(node) != 0;
+  }
+
+  /** The highest frequency of all the words which start with this node's prefix. */
+  public int getBestFrequency(int node) {
+    return buffer.get(offset(node) + 3) & 0xff;
+  }
+
+  public int getFirstChild(int node) {
+    return buffer.getInt(offset(node) + 4);
+  }
+
+  public int getChildCount(int node) {
+    return buffer.getInt(offset(node) + 8) & 0xff;
+  }
+
+  public int getParent(int node) {
+    return buffer.getInt(offset(node) + 8) >>> 8;
+  }
+
+  /**
+   * Finds the child of {@code node} reached through the letter {@code c}.
+   * Children are sorted, so this is a binary search over at most the size of
+   * the alphabet.
+   *
+   * @return the child node, or {@link #NOT_FOUND}
+   */
+  public int getChild(int node, char c) {
+    int low = getFirstChild(node);
+    int high = low + getChildCount(node) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midChar = getChar(mid);
+      if (midChar < c) {
+        low = mid + 1;
+      } else if (midChar > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Walks the trie from the root along {@code prefix}.  Letters are compared
+   * in lower case, which is how the words are stored.
+   *
+   * @return the node for the prefix, or {@link #NOT_FOUND}
+   */
+  public int findPrefix(CharSequence prefix) {
+    int node = ROOT;
+    final int length = prefix.length();
+    for (int i = 0; i < length && node != NOT_FOUND; i++) {
+      node = getChild(node, Character.toLowerCase(prefix.charAt(i)));
+    }
+    return node;
+  }
+
+  /**
+   * Spells out the word ending at {@code node} into {@code out}, by following
+   * the parent links up to the root.
+   *
+   * @return the length of the word
+   */
+  public int getWord(int node, char[] out) {
+    int length = 0;
+    for (int n = node; n != ROOT; n = getParent(n)) {
+      length++;
+    }
+    int i = length;
+    for (int n = node; n != ROOT; n = getParent(n)) {
+      out[--i] = getChar(n);
+    }
+    return length;
+  }
+
+  /**
+   * Offers the words which start with, and are longer than, the prefix at
+   * {@code node} to {@code out} for ranking by frequency.  Whole subtrees are
+   * skipped once their best frequency can no longer make it into the result.
+   */
+  public void getCompletions(int node, Suggestions out) {
+    getCompletions(node, 0, out);
+  }
+
+  /**
+   * Like {@link #getCompletions(int, Suggestions)}, but offers the words with
+   * {@code idBase} added to their node ids, so that words from several
+   * dictionaries can be ranked together.
+   */
+  public void getCompletions(int node, int idBase, Suggestions out) {
+    final int first = getFirstChild(node);
+    final int end = first + getChildCount(node);
+    for (int child = first; child < end; child++) {
+      collect(child, idBase, out);
+    }
+  }
+
+  private void collect(int node, int idBase, Suggestions out) {
+    if (getBestFrequency(node) <= out.getThreshold()) {
+      return;
+    }
+    int frequency = getFrequency(node);
+    if (frequency > 0 && frequency > out.getThreshold()) {
+      out.offer(idBase + node, frequency);
+    }
+    final int first = getFirstChild(node);
+    final int end = first + getChildCount(node);
+    for (int child = first; child < end; child++) {
+      collect(child, idBase, out);
+    }
+  }
+}
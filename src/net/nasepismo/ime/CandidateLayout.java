@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Places suggestions in a row, as the candidate strip shows them: each word
+ * takes its measured width plus a gap on either side.
+ *
+ * <p>Layout is incremental.  Each call lays out the suggestions from where
+ * the last one stopped until the row reaches the given limit, so scrolling
+ * further only measures the words that come into reach.  The positions are
+ * kept in arrays which are reused for the next list.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class CandidateLayout {
+
+  private static final int INITIAL_CAPACITY = 32;
+
+  private final int gap;
+  private int[] wordX = new int[INITIAL_CAPACITY];
+  private int[] wordWidths = new int[INITIAL_CAPACITY];
+
+  /** The number of suggestions laid out so far, from the start of the list. */
+  private int count;
+
+  /** The width of the suggestions laid out so far. */
+  private int totalWidth;
+
+  /** @param gap the space on either side of each word, in pixels */
+  public CandidateLayout(int gap) {
+    this.gap = gap;
+  }
+
+  /** Forgets the layout, for a new list of suggestions. */
+  public void clear() {
+    count = 0;
+    totalWidth = 0;
+  }
+
+  /**
+   * Lays out more of {@code suggestions}, which must be the list laid out
+   * since the last {@link #clear}, until the row reaches {@code limit} pixels
+   * or runs out of suggestions.
+   *
+   * @return whether anything was laid out
+   */
+  public boolean layout(Suggestions suggestions, int limit, TextMeasurer measurer) {
+    final int size = suggestions.size();
+    if (count == size || totalWidth >= limit) {
+      return false;
+    }
+    if (wordX.length < size) {
+      int capacity = Math.max(size, wordX.length * 2);
+      wordX = new int[capacity];
+      wordWidths = new int[capacity];
+      count = 0;
+      totalWidth = 0;
+    }
+    final char[] text = suggestions.getText();
+    int x = totalWidth;
+    int i = count;
+    for (; i < size && x < limit; i++) {
+      final float textWidth = measurer.measureText(
+          text, suggestions.getTextStart(i), suggestions.getTextLength(i));
+      final int wordWidth = (int) textWidth + gap * 2;
+      wordX[i] = x;
+      wordWidths[i] = wordWidth;
+      x += wordWidth;
+    }
+    count = i;
+    totalWidth = x;
+    return true;
+  }
+
+  /** The number of suggestions laid out. */
+  public int getCount() {
+    return count;
+  }
+
+  /** The width of the suggestions laid out. */
+  public int getTotalWidth() {
+    return totalWidth;
+  }
+
+  /** Where the suggestion at {@code index} starts, gap included. */
+  public int getX(int index) {
+    return wordX[index];
+  }
+
+  /** How wide the suggestion at {@code index} is, gaps included. */
+  public int getWidth(int index) {
+    return wordWidths[index];
+  }
+
+  /** The space on either side of each word. */
+  public int getGap() {
+    return gap;
+  }
+
+  /**
+   * Finds the suggestion under the horizontal position {@code x}, by binary
+   * search over the word positions.
+   *
+   * @return the index of the suggestion, or -1 if there is none
+   */
+  public int getIndexAt(int x) {
+    if (x < 0 || x >= totalWidth) {
+      return -1;
+    }
+    int low = 0;
+    int high = count - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (wordX[mid] <= x) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+}
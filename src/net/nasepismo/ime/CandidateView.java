@@ -16,9 +16,6 @@
 
 package net.nasepismo.ime;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Canvas;
@@ -29,12 +26,15 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 
-import com.google.inject.internal.Lists;
-import com.google.inject.internal.Nullable;
-
 /**
  * Manages the display of the typed-in suggestions.
  *
+ * <p>The suggestions form a horizontally scrolling strip of any length, such
+ * as a full list of completions from the editor.  Words are only measured as
+ * the strip is scrolled towards them, and only the words within the visible
+ * part of the strip are drawn, so the cost of a frame depends on the width of
+ * the view rather than on the number of suggestions.
+ *
  * @author filmil@gmail.com (Filip Miletic)
  */
 public class CandidateView extends View {
@@ -42,7 +42,7 @@ public class CandidateView extends View {
   private static final int OUT_OF_BOUNDS = -1;
 
   private SoftKeyboard softKeyboard;
-  private List<String> suggestionList;
+  private Suggestions suggestionList = EMPTY_LIST;
   private int selectedIndex;
   private int touchX = OUT_OF_BOUNDS;
   private Drawable selectionHighlight;
@@ -50,26 +50,34 @@ public class CandidateView extends View {
 
   private Rect padding;
 
-  private static final int MAX_SUGGESTIONS = 32;
   private static final int SCROLL_PIXELS = 20;
 
-  private int[] wordWidths = new int[MAX_SUGGESTIONS];
-  private int[] wordX = new int[MAX_SUGGESTIONS];
+  /** How far to lay out ahead of the visible area when the view has no size yet. */
+  private int minLayoutWidth;
 
   private static final int X_GAP = 10;
 
-  private static final List<String> EMPTY_LIST = Lists.newArrayList();
+  private final CandidateLayout layout = new CandidateLayout(X_GAP);
+  private final TextMeasurer measurer = new TextMeasurer() {
+    public float measureText(char[] text, int start, int length) {
+      return textWidthCache != null
+          ? textWidthCache.measureText(paint, text, start, length)
+          : paint.measureText(text, start, length);
+    }
+  };
+
+  private static final Suggestions EMPTY_LIST = new Suggestions(0);
 
   private int normalColor;
   private int recommendedColor;
   private int otherColor;
   private int verticalPadding;
   private Paint paint;
+  private TextWidthCache textWidthCache;
+  private KeyTimings timings = KeyTimings.OFF;
   private boolean isScrolled;
   private int targetScrollX;
 
-  private int totalWidth;
-
   private GestureDetector gestureDetector;
 
   /**
@@ -94,6 +102,7 @@ public class CandidateView extends View {
     recommendedColor = r.getColor(R.color.candidate_recommended);
     otherColor = r.getColor(R.color.candidate_other);
     verticalPadding = r.getDimensionPixelSize(R.dimen.candidate_vertical_padding);
+    minLayoutWidth = r.getDisplayMetrics().widthPixels;
 
     paint = new Paint();
     paint.setColor(normalColor);
@@ -107,10 +116,11 @@ public class CandidateView extends View {
         isScrolled = true;
         int sx = getScrollX();
         sx += distanceX;
+        layoutSuggestions(sx + getWidth() * 2);
         if (sx < 0) {
           sx = 0;
         }
-        if (sx + getWidth() > totalWidth) {
+        if (sx + getWidth() > layout.getTotalWidth()) {
           sx -= distanceX;
         }
         targetScrollX = sx;
@@ -133,9 +143,22 @@ public class CandidateView extends View {
     softKeyboard = listener;
   }
 
+  /**
+   * Sets the cache used to measure the suggestions.  It is shared with the
+   * service so that it outlives the view across configuration changes.
+   */
+  public void setTextWidthCache(TextWidthCache cache) {
+    textWidthCache = cache;
+  }
+
+  /** Sets where the time spent laying out and drawing is recorded. */
+  public void setKeyTimings(KeyTimings timings) {
+    this.timings = timings;
+  }
+
   @Override
   public int computeHorizontalScrollRange() {
-    return totalWidth;
+    return layout.getTotalWidth();
   }
 
   @Override
@@ -154,17 +177,29 @@ public class CandidateView extends View {
         resolveSize(desiredHeight, heightMeasureSpec));
   }
 
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    layoutSuggestions(getScrollX() + w * 2);
+  }
+
   /**
-   * If the canvas is null, then only touch calculations are performed to pick the target
-   * candidate.
+   * Lays out more of the suggestions, until the row reaches {@code limit}
+   * pixels; see {@link CandidateLayout}.  Drawing and touch handling only read
+   * the result.
    */
-  @Override
-  protected void onDraw(@Nullable Canvas canvas) {
-    if (canvas != null) {
-      super.onDraw(canvas);
+  private void layoutSuggestions(int limit) {
+    final long start = timings.start();
+    if (layout.layout(suggestionList, limit, measurer)) {
+      timings.stop(KeyTimings.LAYOUT, start);
     }
-    totalWidth = 0;
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    super.onDraw(canvas);
     if (suggestionList == null) return;
+    final long start = timings.start();
 
     if (padding == null) {
       padding = new Rect(0, 0, 0, 0);
@@ -172,54 +207,48 @@ public class CandidateView extends View {
         getBackground().getPadding(padding);
       }
     }
-    int x = 0;
-    final int count = suggestionList.size();
     final int height = getHeight();
     final Rect paddingConst = padding;
     final Paint paintConst = paint;
-    final int touchXConst = touchX;
-    final int scrollX = getScrollX();
-    final boolean scrolled = isScrolled;
+    final boolean highlight = touchX != OUT_OF_BOUNDS && !isScrolled;
     final boolean typedWordValid = isWordValid;
     final int y = (int) (((height - paint.getTextSize()) / 2) - paint.ascent());
 
-    for (int i = 0; i < count; i++) {
-      String suggestion = suggestionList.get(i);
-      float textWidth = paintConst.measureText(suggestion);
-      final int wordWidth = (int) textWidth + X_GAP * 2;
+    final char[] text = suggestionList.getText();
 
-      wordX[i] = x;
-      wordWidths[i] = wordWidth;
+    // Only draw the suggestions which intersect the visible area.
+    final int scrollX = getScrollX();
+    final int right = scrollX + getWidth();
+    final int first = Math.max(layout.getIndexAt(scrollX), 0);
+    final int count = layout.getCount();
+    for (int i = first; i < count && layout.getX(i) < right; i++) {
+      final int x = layout.getX(i);
+      final int wordWidth = layout.getWidth(i);
       paintConst.setColor(normalColor);
-      if (touchXConst + scrollX >= x && touchXConst + scrollX < x + wordWidth && !scrolled) {
-        if (canvas != null) {
-          canvas.translate(x, 0);
-          selectionHighlight.setBounds(0, paddingConst.top, wordWidth, height);
-          selectionHighlight.draw(canvas);
-          canvas.translate(-x, 0);
-        }
-        selectedIndex = i;
+      if (highlight && i == selectedIndex) {
+        canvas.translate(x, 0);
+        selectionHighlight.setBounds(0, paddingConst.top, wordWidth, height);
+        selectionHighlight.draw(canvas);
+        canvas.translate(-x, 0);
       }
 
-      if (canvas != null) {
-        if ((i == 1 && !typedWordValid) || (i == 0 && typedWordValid)) {
-          paintConst.setFakeBoldText(true);
-          paintConst.setColor(recommendedColor);
-        } else if (i != 0) {
-          paintConst.setColor(otherColor);
-        }
-        canvas.drawText(suggestion, x + X_GAP, y, paintConst);
+      if ((i == 1 && !typedWordValid) || (i == 0 && typedWordValid)) {
+        paintConst.setFakeBoldText(true);
+        paintConst.setColor(recommendedColor);
+      } else if (i != 0) {
         paintConst.setColor(otherColor);
-        canvas.drawLine(
-            x + wordWidth + 0.5f, paddingConst.top, x + wordWidth + 0.5f, height + 1, paintConst);
-        paintConst.setFakeBoldText(false);
       }
-      x += wordWidth;
+      canvas.drawText(text, suggestionList.getTextStart(i), suggestionList.getTextLength(i),
+          x + X_GAP, y, paintConst);
+      paintConst.setColor(otherColor);
+      canvas.drawLine(
+          x + wordWidth + 0.5f, paddingConst.top, x + wordWidth + 0.5f, height + 1, paintConst);
+      paintConst.setFakeBoldText(false);
     }
-    totalWidth = x;
     if (targetScrollX != getScrollX()) {
       scrollToTarget();
     }
+    timings.stop(KeyTimings.DRAW, start);
   }
 
   private void scrollToTarget() {
@@ -241,23 +270,27 @@ public class CandidateView extends View {
     invalidate();
   }
 
-  public void setSuggestions(List<String> suggestions, boolean completions,
+  /**
+   * Shows the given suggestions.  They are read in place, so the caller must
+   * not change them until it replaces them with another call.
+   */
+  public void setSuggestions(Suggestions suggestions, boolean completions,
       boolean typedWordValid) {
     clear();
     if (suggestions != null) {
-      suggestionList = new ArrayList<String>(suggestions);
+      suggestionList = suggestions;
     }
     isWordValid = typedWordValid;
     scrollTo(0, 0);
     targetScrollX = 0;
-    // Compute the total width
-    onDraw(null);
+    layoutSuggestions(Math.max(getWidth(), minLayoutWidth) * 2);
     invalidate();
     requestLayout();
   }
 
   public void clear() {
     suggestionList = EMPTY_LIST;
+    layout.clear();
     touchX = OUT_OF_BOUNDS;
     selectedIndex = -1;
     invalidate();
@@ -278,9 +311,13 @@ public class CandidateView extends View {
     switch (action) {
     case MotionEvent.ACTION_DOWN:
       isScrolled = false;
+      selectedIndex = layout.getIndexAt(x + getScrollX());
       invalidate();
       break;
     case MotionEvent.ACTION_MOVE:
+      if (!isScrolled) {
+        selectedIndex = layout.getIndexAt(x + getScrollX());
+      }
       if (y <= 0) {
         // Fling up!?
             if (selectedIndex >= 0) {
@@ -310,8 +347,7 @@ public class CandidateView extends View {
    */
   public void takeSuggestionAt(float x) {
     touchX = (int) x;
-    // To detect candidate
-    onDraw(null);
+    selectedIndex = layout.getIndexAt(touchX + getScrollX());
     if (selectedIndex >= 0) {
       softKeyboard.pickSuggestionManually(selectedIndex);
     }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Answers the per-keystroke questions about characters, such as whether a key
+ * separates words or what its upper case is, from tables computed up front.
+ * Lookups take constant time and never allocate.
+ *
+ * <p>The tables cover the code points up to the end of the Cyrillic block,
+ * which includes all Serbian Latin and Cyrillic letters.  Anything above is
+ * answered by {@link Character}.  The word separators come from the caller,
+ * normally from the string resources.  One table serves all the layouts.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class CharacterTable {
+
+  /** The first code point past the tables. */
+  static final int TABLE_SIZE = 0x0500;
+
+  private static final byte SEPARATOR = 1;
+  private static final byte LETTER = 2;
+
+  private final byte[] flags = new byte[TABLE_SIZE];
+  private final char[] upperCase = new char[TABLE_SIZE];
+
+  // Dead key compositions in an open-addressed hash table keyed by
+  // (accent << 16 | character).
+  private int[] deadKeys = new int[256];
+  private char[] deadChars = new char[256];
+  private int deadKeyCount;
+
+  /**
+   * @param separators the characters which end a word
+   */
+  public CharacterTable(CharSequence separators) {
+    for (int c = 0; c < TABLE_SIZE; c++) {
+      if (Character.isLetter(c)) {
+        flags[c] |= LETTER;
+      }
+      upperCase[c] = Character.toUpperCase((char) c);
+    }
+    for (int i = 0; i < separators.length(); i++) {
+      char c = separators.charAt(i);
+      if (c < TABLE_SIZE) {
+        flags[c] |= SEPARATOR;
+      }
+    }
+  }
+
+  /** Whether {@code c} ends the word being composed. */
+  public boolean isSeparator(int c) {
+    return c >= 0 && c < TABLE_SIZE && (flags[c] & SEPARATOR) != 0;
+  }
+
+  public boolean isLetter(int c) {
+    if (c >= 0 && c < TABLE_SIZE) {
+      return (flags[c] & LETTER) != 0;
+    }
+    return Character.isLetter(c);
+  }
+
+  public int toUpperCase(int c) {
+    if (c >= 0 && c < TABLE_SIZE) {
+      return upperCase[c];
+    }
+    return Character.toUpperCase(c);
+  }
+
+  /** Records that the dead key {@code accent} followed by {@code c} gives {@code composed}. */
+  public void addDeadChar(int accent, int c, int composed) {
+    if ((deadKeyCount + 1) * 2 > deadKeys.length) {
+      int[] oldKeys = deadKeys;
+      char[] oldChars = deadChars;
+      deadKeys = new int[oldKeys.length * 2];
+      deadChars = new char[oldKeys.length * 2];
+      deadKeyCount = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          putDeadChar(oldKeys[i], oldChars[i]);
+        }
+      }
+    }
+    putDeadChar((accent << 16) | (c & 0xffff), (char) composed);
+  }
+
+  private void putDeadChar(int key, char composed) {
+    final int mask = deadKeys.length - 1;
+    int slot = mix(key) & mask;
+    while (deadKeys[slot] != 0 && deadKeys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    if (deadKeys[slot] == 0) {
+      deadKeyCount++;
+    }
+    deadKeys[slot] = key;
+    deadChars[slot] = composed;
+  }
+
+  /**
+   * The character composed from the dead key {@code accent} and {@code c}, or
+   * 0 if they do not compose, like {@link android.view.KeyEvent#getDeadChar}.
+   */
+  public int getDeadChar(int accent, int c) {
+    final int key = (accent << 16) | (c & 0xffff);
+    final int mask = deadKeys.length - 1;
+    for (int slot = mix(key) & mask; deadKeys[slot] != 0; slot = (slot + 1) & mask) {
+      if (deadKeys[slot] == key) {
+        return deadChars[slot];
+      }
+    }
+    return 0;
+  }
+
+  private static int mix(int key) {
+    key *= 0x9E3779B9;
+    return key ^ (key >>> 16);
+  }
+}
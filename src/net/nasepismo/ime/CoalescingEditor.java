@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * An editor which saves calls into the editor behind it, each of which is a
+ * round trip to the application's process.
+ *
+ * <p>Composing text which is set again within a frame of the last time only
+ * replaces the pending text, which is sent at the end of the frame; any other
+ * call sends it first, so the editor sees the calls in order.  Once a call
+ * ends the composing text in the editor, the next composing text starts a
+ * new word and is sent at once: held back, it would leave the editor with
+ * no composing text to report, and the key handling would take that for
+ * the user moving the cursor away.  Between
+ * {@link #beginEdit} and {@link #endEdit}, the writes of one logical edit go
+ * in a batch edit, which is only opened once there is something to write.
+ *
+ * <p>Every call passed on to the editor is counted, in total and since the
+ * last {@link #beginEdit}.  The text written is also played into a
+ * {@link ShadowText}, which goes stale on any call whose effect on the text
+ * before the cursor is not known here, and each call is timed as a
+ * {@link KeyTimings#IPC} stage.  Calls which are not part of {@link Editor}
+ * are made straight to the editor behind, between {@link #beforeWrite} or
+ * {@link #beforeCall} and {@link #afterCall}.  Must be used on the thread of
+ * the scheduler.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class CoalescingEditor implements Editor {
+
+  /** How long composing text may wait for the next one to replace it. */
+  public static final long FRAME_MS = 16;
+
+  private final Editor target;
+  private final ShadowText shadow;
+  private final KeyTimings timings;
+  private final Scheduler scheduler;
+  private final Runnable flusher = new Runnable() {
+    public void run() {
+      flush();
+    }
+  };
+
+  /** The composing text as last set, whether it was sent or is pending. */
+  private final StringBuilder composingText = new StringBuilder();
+  private int pendingCursorPosition;
+  private boolean hasPending;
+  private long lastComposingTime = -FRAME_MS;
+
+  private boolean inEdit;
+  private boolean inBatch;
+
+  private int callCount;
+  private int editCallCount;
+
+  /**
+   * @param target the editor the calls are passed on to
+   * @param scheduler the clock for the frames, and the queue which sends the
+   *     pending composing text at the end of one
+   */
+  public CoalescingEditor(Editor target, ShadowText shadow, KeyTimings timings,
+      Scheduler scheduler) {
+    this.target = target;
+    this.shadow = shadow;
+    this.timings = timings;
+    this.scheduler = scheduler;
+  }
+
+  /** The editor this passes the calls on to. */
+  public Editor getTarget() {
+    return target;
+  }
+
+  /** Starts a logical edit, and the count of its calls. */
+  public void beginEdit() {
+    inEdit = true;
+    editCallCount = 0;
+  }
+
+  /** Ends the logical edit, closing its batch edit if it needed one. */
+  public void endEdit() {
+    inEdit = false;
+    if (inBatch) {
+      inBatch = false;
+      tally();
+      final long start = timings.start();
+      target.endBatchEdit();
+      timings.stop(KeyTimings.IPC, start);
+    }
+  }
+
+  /** Sends the pending composing text, if there is any. */
+  public void flush() {
+    if (!hasPending) {
+      return;
+    }
+    hasPending = false;
+    scheduler.removeCallbacks(flusher);
+    lastComposingTime = scheduler.uptimeMillis();
+    final long start = write();
+    target.setComposingText(composingText, pendingCursorPosition);
+    timings.stop(KeyTimings.IPC, start);
+  }
+
+  /** The calls passed on to the editor so far. */
+  public int getCallCount() {
+    return callCount;
+  }
+
+  /** The calls passed on to the editor since the last {@link #beginEdit}. */
+  public int getEditCallCount() {
+    return editCallCount;
+  }
+
+  /**
+   * Counts a call which changes the text, to be made straight to the editor
+   * behind; sends the pending composing text first.
+   *
+   * @return the time the call starts, for {@link #afterCall}
+   */
+  public long beforeWrite() {
+    flush();
+    return write();
+  }
+
+  /**
+   * Counts a call which does not change the text, to be made straight to the
+   * editor behind; sends the pending composing text first.
+   *
+   * @return the time the call starts, for {@link #afterCall}
+   */
+  public long beforeCall() {
+    flush();
+    tally();
+    return timings.start();
+  }
+
+  /** Ends a call which started at {@code start}. */
+  public void afterCall(long start) {
+    timings.stop(KeyTimings.IPC, start);
+  }
+
+  /**
+   * Plays a key typed into the editor into the shadow.
+   *
+   * @param c the character the key types, or 0 if it types none
+   */
+  void onKeyTyped(int keyCode, int c) {
+    if (composingText.length() > 0) {
+      shadow.invalidate();
+    } else if (keyCode == KeyHandler.KEYCODE_DEL) {
+      shadow.delete(1);
+    } else if (c != 0) {
+      shadow.append((char) c);
+    } else {
+      shadow.invalidate();
+    }
+  }
+
+  /** Forgets the composing text, which the editor no longer has. */
+  private void endComposing() {
+    composingText.setLength(0);
+    lastComposingTime = -FRAME_MS;
+  }
+
+  /** Forgets the pending composing text, which is not to be sent. */
+  private void dropPending() {
+    if (hasPending) {
+      hasPending = false;
+      scheduler.removeCallbacks(flusher);
+    }
+  }
+
+  private void tally() {
+    callCount++;
+    editCallCount++;
+  }
+
+  /** Counts a write, opening the batch edit for it first if need be. */
+  private long write() {
+    final long start = timings.start();
+    if (inEdit && !inBatch) {
+      inBatch = true;
+      tally();
+      target.beginBatchEdit();
+    }
+    tally();
+    return start;
+  }
+
+  private boolean afterCall(long start, boolean result) {
+    timings.stop(KeyTimings.IPC, start);
+    return result;
+  }
+
+  private int afterCall(long start, int result) {
+    timings.stop(KeyTimings.IPC, start);
+    return result;
+  }
+
+  private <T> T afterCall(long start, T result) {
+    timings.stop(KeyTimings.IPC, start);
+    return result;
+  }
+
+  public boolean setComposingText(CharSequence text, int newCursorPosition) {
+    composingText.setLength(0);
+    composingText.append(text);
+    final long now = scheduler.uptimeMillis();
+    if (hasPending || now - lastComposingTime < FRAME_MS) {
+      pendingCursorPosition = newCursorPosition;
+      if (!hasPending) {
+        hasPending = true;
+        scheduler.postAtTime(flusher, lastComposingTime + FRAME_MS);
+      }
+      return true;
+    }
+    lastComposingTime = now;
+    final long time = write();
+    return afterCall(time, target.setComposingText(text, newCursorPosition));
+  }
+
+  public CharSequence getTextBeforeCursor(int n, int flags) {
+    final long time = beforeCall();
+    return afterCall(time, target.getTextBeforeCursor(n, flags));
+  }
+
+  public int getCursorCapsMode(int reqModes) {
+    final long time = beforeCall();
+    return afterCall(time, target.getCursorCapsMode(reqModes));
+  }
+
+  public boolean deleteSurroundingText(int leftLength, int rightLength) {
+    final long time = beforeWrite();
+    if (composingText.length() > 0) {
+      shadow.invalidate();
+    } else {
+      shadow.delete(leftLength);
+    }
+    return afterCall(time, target.deleteSurroundingText(leftLength, rightLength));
+  }
+
+  public boolean finishComposingText() {
+    final long time = beforeWrite();
+    shadow.append(composingText);
+    endComposing();
+    return afterCall(time, target.finishComposingText());
+  }
+
+  /**
+   * Drops the pending composing text rather than sending it, since the text
+   * committed replaces whatever composing text the editor has.
+   */
+  public boolean commitText(CharSequence text, int newCursorPosition) {
+    dropPending();
+    final long time = write();
+    endComposing();
+    if (newCursorPosition > 0) {
+      shadow.append(text);
+    } else if (text.length() > 0) {
+      shadow.invalidate();
+    }
+    return afterCall(time, target.commitText(text, newCursorPosition));
+  }
+
+  public boolean beginBatchEdit() {
+    final long time = beforeCall();
+    return afterCall(time, target.beginBatchEdit());
+  }
+
+  public boolean endBatchEdit() {
+    final long time = beforeCall();
+    return afterCall(time, target.endBatchEdit());
+  }
+
+  /** Counts the key down and the key up as a call each. */
+  public boolean sendKeyDownUp(int keyCode, int c) {
+    final long time = beforeWrite();
+    tally();
+    onKeyTyped(keyCode, c);
+    return afterCall(time, target.sendKeyDownUp(keyCode, c));
+  }
+}
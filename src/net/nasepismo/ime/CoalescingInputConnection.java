@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * An input connection which saves calls into the editor, each of which is a
+ * round trip to the application's process.  The calls go through a
+ * {@link CoalescingEditor}, which holds back composing text set again within
+ * a frame, batches the writes of each logical edit, counts and times the
+ * calls and keeps the {@link ShadowText} up to date; see there.
+ *
+ * <p>The calls an {@link Editor} has are passed to the coalescing editor as
+ * they are, and the others are made straight to the editor's connection,
+ * after the pending composing text.  Must be used on the main thread.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class CoalescingInputConnection extends InputConnectionWrapper {
+
+  private final InputConnection target;
+  private final ShadowText shadow;
+  private final CoalescingEditor editor;
+
+  public CoalescingInputConnection(InputConnection target, ShadowText shadow,
+      KeyTimings timings, Scheduler scheduler) {
+    super(target, false);
+    this.target = target;
+    this.shadow = shadow;
+    editor = new CoalescingEditor(new ConnectionEditor(target), shadow, timings, scheduler);
+  }
+
+  /** The connection this passes the calls on to. */
+  public InputConnection getTarget() {
+    return target;
+  }
+
+  /** The editor which coalesces the calls, to be used for typing. */
+  public CoalescingEditor getEditor() {
+    return editor;
+  }
+
+  /** Counts a call which changes the text in a way not known here. */
+  private long beforeWrite() {
+    final long time = editor.beforeWrite();
+    shadow.invalidate();
+    return time;
+  }
+
+  private boolean afterCall(long start, boolean result) {
+    editor.afterCall(start);
+    return result;
+  }
+
+  private <T> T afterCall(long start, T result) {
+    editor.afterCall(start);
+    return result;
+  }
+
+  @Override
+  public boolean setComposingText(CharSequence text, int newCursorPosition) {
+    return editor.setComposingText(text, newCursorPosition);
+  }
+
+  @Override
+  public CharSequence getTextBeforeCursor(int n, int flags) {
+    return editor.getTextBeforeCursor(n, flags);
+  }
+
+  @Override
+  public CharSequence getTextAfterCursor(int n, int flags) {
+    final long time = editor.beforeCall();
+    return afterCall(time, super.getTextAfterCursor(n, flags));
+  }
+
+  @Override
+  public int getCursorCapsMode(int reqModes) {
+    return editor.getCursorCapsMode(reqModes);
+  }
+
+  @Override
+  public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+    final long time = editor.beforeCall();
+    return afterCall(time, super.getExtractedText(request, flags));
+  }
+
+  @Override
+  public boolean deleteSurroundingText(int leftLength, int rightLength) {
+    return editor.deleteSurroundingText(leftLength, rightLength);
+  }
+
+  @Override
+  public boolean finishComposingText() {
+    return editor.finishComposingText();
+  }
+
+  @Override
+  public boolean commitText(CharSequence text, int newCursorPosition) {
+    return editor.commitText(text, newCursorPosition);
+  }
+
+  @Override
+  public boolean commitCompletion(CompletionInfo text) {
+    final long time = beforeWrite();
+    return afterCall(time, super.commitCompletion(text));
+  }
+
+  @Override
+  public boolean setSelection(int start, int end) {
+    final long time = beforeWrite();
+    return afterCall(time, super.setSelection(start, end));
+  }
+
+  @Override
+  public boolean performEditorAction(int editorAction) {
+    final long time = beforeWrite();
+    return afterCall(time, super.performEditorAction(editorAction));
+  }
+
+  @Override
+  public boolean performContextMenuAction(int id) {
+    final long time = beforeWrite();
+    return afterCall(time, super.performContextMenuAction(id));
+  }
+
+  @Override
+  public boolean beginBatchEdit() {
+    return editor.beginBatchEdit();
+  }
+
+  @Override
+  public boolean endBatchEdit() {
+    return editor.endBatchEdit();
+  }
+
+  @Override
+  public boolean sendKeyEvent(KeyEvent event) {
+    final long time = editor.beforeWrite();
+    if (event.getAction() == KeyEvent.ACTION_DOWN) {
+      editor.onKeyTyped(event.getKeyCode(), event.getUnicodeChar());
+    }
+    return afterCall(time, super.sendKeyEvent(event));
+  }
+
+  @Override
+  public boolean clearMetaKeyStates(int states) {
+    final long time = editor.beforeWrite();
+    return afterCall(time, super.clearMetaKeyStates(states));
+  }
+
+  @Override
+  public boolean reportFullscreenMode(boolean enabled) {
+    final long time = editor.beforeCall();
+    return afterCall(time, super.reportFullscreenMode(enabled));
+  }
+
+  @Override
+  public boolean performPrivateCommand(String action, Bundle data) {
+    final long time = beforeWrite();
+    return afterCall(time, super.performPrivateCommand(action, data));
+  }
+
+  /** The calls of an {@link Editor}, made on an input connection. */
+  private static class ConnectionEditor implements Editor {
+    private final InputConnection connection;
+
+    // The key events sent, by key code, made once and reused so that
+    // typing allocates nothing.
+    private final SparseArray<KeyEvent> keyDownEvents = new SparseArray<KeyEvent>();
+    private final SparseArray<KeyEvent> keyUpEvents = new SparseArray<KeyEvent>();
+
+    ConnectionEditor(InputConnection connection) {
+      this.connection = connection;
+    }
+
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+      return connection.getTextBeforeCursor(n, flags);
+    }
+
+    public int getCursorCapsMode(int reqModes) {
+      return connection.getCursorCapsMode(reqModes);
+    }
+
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+      return connection.setComposingText(text, newCursorPosition);
+    }
+
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+      return connection.commitText(text, newCursorPosition);
+    }
+
+    public boolean finishComposingText() {
+      return connection.finishComposingText();
+    }
+
+    public boolean deleteSurroundingText(int leftLength, int rightLength) {
+      return connection.deleteSurroundingText(leftLength, rightLength);
+    }
+
+    public boolean beginBatchEdit() {
+      return connection.beginBatchEdit();
+    }
+
+    public boolean endBatchEdit() {
+      return connection.endBatchEdit();
+    }
+
+    public boolean sendKeyDownUp(int keyCode, int c) {
+      connection.sendKeyEvent(getKeyEvent(keyDownEvents, KeyEvent.ACTION_DOWN, keyCode));
+      return connection.sendKeyEvent(getKeyEvent(keyUpEvents, KeyEvent.ACTION_UP, keyCode));
+    }
+
+    /** The key event for {@code action} on {@code keyCode}, made on first use. */
+    private static KeyEvent getKeyEvent(SparseArray<KeyEvent> events, int action,
+        int keyCode) {
+      KeyEvent event = events.get(keyCode);
+      if (event == null) {
+        event = new KeyEvent(action, keyCode);
+        events.put(keyCode, event);
+      }
+      return event;
+    }
+  }
+}
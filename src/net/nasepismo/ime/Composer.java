@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * The word being composed, along with what is kept to edit it quickly: its
+ * node in the dictionary, and the transliteration steps which produced it.
+ *
+ * <p>The composer reads as the composed text.  It is read in place, so
+ * readers which keep the text must copy it.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class Composer implements CharSequence {
+
+  /**
+   * The longest a word may get before its head is committed on its own; no
+   * dictionary word is longer.  This bounds the composing text which is sent
+   * to the editor for each letter.
+   */
+  public static final int MAX_LENGTH = BinaryDictionary.MAX_WORD_LENGTH;
+
+  /** How many letters are left composing when the head is committed. */
+  public static final int TAIL_LENGTH = 16;
+
+  private final StringBuilder text = new StringBuilder();
+  private final Transliterator transliterator = new Transliterator();
+  private final DictionaryCursor cursor;
+
+  /** @param dictionary the dictionary to track the word in, or null */
+  public Composer(BinaryDictionary dictionary) {
+    cursor = new DictionaryCursor(dictionary);
+  }
+
+  /**
+   * Adds a letter to the word.
+   *
+   * @param transliterate whether a Latin letter is converted to Cyrillic,
+   *     merging with the letter before it where they form a digraph
+   */
+  public void append(char c, boolean transliterate) {
+    if (transliterate) {
+      if (transliterator.append(c, text) == Transliterator.MERGED) {
+        cursor.pop();
+      }
+      cursor.push(text.charAt(text.length() - 1));
+    } else {
+      text.append(c);
+      cursor.push(c);
+    }
+  }
+
+  /**
+   * Takes the last typed letter back from the word.  For a transliterated
+   * digraph, only its second letter is taken back.
+   */
+  public void deleteLast() {
+    final int length = text.length();
+    final int undone = transliterator.undo(text);
+    if (undone == Transliterator.NONE) {
+      text.setLength(length - 1);
+    }
+    cursor.pop();
+    if (undone == Transliterator.MERGED) {
+      cursor.push(text.charAt(length - 1));
+    }
+  }
+
+  /**
+   * How many letters at the head of the word should be committed on their
+   * own, as the word has grown past {@link #MAX_LENGTH}; 0 if none.
+   */
+  public int getOverflow() {
+    return text.length() > MAX_LENGTH ? text.length() - TAIL_LENGTH : 0;
+  }
+
+  /**
+   * Drops the first {@code count} letters of the word, once they have been
+   * committed, and goes on with the rest as a word of its own.  The letters
+   * left can still be taken back one by one.
+   */
+  public void dropHead(int count) {
+    text.delete(0, count);
+    transliterator.keepLast(text.length());
+    cursor.reset();
+    walk();
+  }
+
+  /**
+   * Tracks the word in {@code dictionary} from now on, as when the dictionary
+   * has been opened after the word was begun.
+   */
+  public void setDictionary(BinaryDictionary dictionary) {
+    cursor.setDictionary(dictionary);
+    walk();
+  }
+
+  /** Walks the cursor, which is at the empty word, down the whole word. */
+  private void walk() {
+    for (int i = 0; i < text.length(); i++) {
+      cursor.push(text.charAt(i));
+    }
+  }
+
+  /** Replaces the word, as when a suggestion is picked. */
+  public void replace(char[] chars, int start, int length) {
+    clear();
+    text.append(chars, start, length);
+    for (int i = 0; i < length; i++) {
+      cursor.push(chars[start + i]);
+    }
+  }
+
+  /** Forgets the word, along with the state kept for it. */
+  public void clear() {
+    text.setLength(0);
+    cursor.reset();
+    transliterator.reset();
+  }
+
+  /**
+   * Forgets the transliteration steps, so that the next letter starts afresh
+   * rather than merging into a digraph.
+   */
+  public void resetTransliteration() {
+    transliterator.reset();
+  }
+
+  /**
+   * The dictionary node of the word, or {@link BinaryDictionary#NOT_FOUND} if
+   * the dictionary has no word starting with it.
+   */
+  public int getNode() {
+    return cursor.getNode();
+  }
+
+  public int length() {
+    return text.length();
+  }
+
+  public char charAt(int index) {
+    return text.charAt(index);
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    return text.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return text.toString();
+  }
+}
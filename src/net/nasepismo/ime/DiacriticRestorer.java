@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Puts back the diacritics of words typed without them, as in "o\u0161i\u0161ana
+ * latinica": c for \u010d or \u0107, s for \u0161, z for \u017e and dj for
+ * \u0111.  The same holds for Cyrillic typed through a Latin keyboard, where
+ * tse may stand for che or tshe, de and je for dje, and so on.  The letters
+ * outside of ASCII are written as Unicode escapes, as the source is kept in
+ * ASCII.
+ *
+ * <p>A word of n ambiguous letters has up to 3<sup>n</sup> readings, so they
+ * are not spelled out up front.  Instead, the trie is walked along the typed
+ * word, and an ambiguous letter branches only into the readings which the
+ * dictionary has a child for.  Prefixes which no word starts with are never
+ * extended, and neither are those whose best word could no longer rank.
+ *
+ * <p>The methods must be called on a single thread.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class DiacriticRestorer {
+
+  /** The most trie nodes looked at for one word typed. */
+  static final int MAX_NODES = 5000;
+
+  /** Each letter typed, followed by the letters it may stand for. */
+  private static final String[] ALTERNATIVES = {
+      "c\u010d\u0107", "s\u0161", "z\u017e",
+      "\u0446\u0447\u045b", "\u0441\u0448", "\u0437\u0436",
+  };
+
+  /** Each pair of letters typed, followed by the letter it may stand for. */
+  private static final String[] DIGRAPHS = {
+      "dj\u0111", "\u0434\u0458\u0452", "\u0434\u0437\u045f",
+  };
+
+  private final char[] typed = new char[BinaryDictionary.MAX_WORD_LENGTH];
+  private int length;
+  private int visitedCount;
+  private boolean truncated;
+
+  // The search in progress.
+  private BinaryDictionary dictionary;
+  private int idBase;
+  private Suggestions out;
+
+  /** Starts the searches for {@code word}, along with a new budget. */
+  public void start(CharSequence word) {
+    length = Math.min(word.length(), typed.length);
+    for (int i = 0; i < length; i++) {
+      typed[i] = Character.toLowerCase(word.charAt(i));
+    }
+    visitedCount = 0;
+    truncated = false;
+  }
+
+  /**
+   * Offers the words of {@code dictionary} which the word given to
+   * {@link #start} may stand for, and their completions, to {@code out},
+   * ranked by frequency.  The word as typed is not offered.
+   *
+   * @param idBase added to the node ids of the words offered
+   */
+  public void search(BinaryDictionary dictionary, int idBase, Suggestions out) {
+    if (length == 0) {
+      return;
+    }
+    this.dictionary = dictionary;
+    this.idBase = idBase;
+    this.out = out;
+    visit(BinaryDictionary.ROOT, 0, false);
+    this.dictionary = null;
+    this.out = null;
+  }
+
+  /** The number of trie nodes visited since {@link #start}. */
+  public int getVisitedCount() {
+    return visitedCount;
+  }
+
+  /** Whether the searches since {@link #start} ran out of budget. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * Continues from {@code node}, which spells a reading of the first
+   * {@code position} letters typed.
+   *
+   * @param restored whether the reading differs from what was typed
+   */
+  private void visit(int node, int position, boolean restored) {
+    if (++visitedCount > MAX_NODES) {
+      truncated = true;
+      return;
+    }
+    if (node != BinaryDictionary.ROOT
+        && dictionary.getBestFrequency(node) <= out.getThreshold()) {
+      return;
+    }
+    if (position == length) {
+      if (restored) {
+        final int frequency = dictionary.getFrequency(node);
+        if (frequency > 0 && frequency > out.getThreshold()) {
+          out.offer(idBase + node, frequency);
+        }
+        dictionary.getCompletions(node, idBase, out);
+      }
+      return;
+    }
+
+    final char c = typed[position];
+    final String alternatives = alternativesOf(c);
+    if (alternatives == null) {
+      step(node, c, position + 1, restored);
+    } else {
+      for (int i = 0; i < alternatives.length() && !truncated; i++) {
+        step(node, alternatives.charAt(i), position + 1, restored || i > 0);
+      }
+    }
+    if (position + 1 < length) {
+      for (String digraph : DIGRAPHS) {
+        if (digraph.charAt(0) == c && digraph.charAt(1) == typed[position + 1]) {
+          step(node, digraph.charAt(2), position + 2, true);
+        }
+      }
+    }
+  }
+
+  private void step(int node, char c, int position, boolean restored) {
+    if (truncated) {
+      return;
+    }
+    final int child = dictionary.getChild(node, c);
+    if (child != BinaryDictionary.NOT_FOUND) {
+      visit(child, position, restored);
+    }
+  }
+
+  private static String alternativesOf(char c) {
+    for (String alternatives : ALTERNATIVES) {
+      if (alternatives.charAt(0) == c) {
+        return alternatives;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Tracks the dictionary node of the word being composed, one letter at a time.
+ * The cursor keeps the whole path from the root as a stack, so that adding a
+ * letter takes one step down the trie and deleting one just pops the stack,
+ * whatever the length of the word.
+ *
+ * <p>Once the word leaves the dictionary the cursor keeps counting letters at
+ * {@link BinaryDictionary#NOT_FOUND}, so that deleting them finds the way
+ * back.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class DictionaryCursor {
+
+  private BinaryDictionary dictionary;
+  private int[] path = new int[BinaryDictionary.MAX_WORD_LENGTH + 1];
+  private int depth;
+
+  /**
+   * @param dictionary the dictionary to walk; if null, the cursor only keeps
+   *     count of the letters
+   */
+  public DictionaryCursor(BinaryDictionary dictionary) {
+    this.dictionary = dictionary;
+    reset();
+  }
+
+  /**
+   * Walks {@code dictionary} from now on, starting over at the empty word.
+   *
+   * @param dictionary the dictionary to walk, or null to only count letters
+   */
+  public void setDictionary(BinaryDictionary dictionary) {
+    this.dictionary = dictionary;
+    reset();
+  }
+
+  /** Goes back to the empty word. */
+  public void reset() {
+    depth = 0;
+    path[0] = dictionary != null ? BinaryDictionary.ROOT : BinaryDictionary.NOT_FOUND;
+  }
+
+  /** Steps down the edge for the letter {@code c}. */
+  public void push(char c) {
+    int node = path[depth];
+    if (node != BinaryDictionary.NOT_FOUND) {
+      node = dictionary.getChild(node, Character.toLowerCase(c));
+    }
+    if (++depth == path.length) {
+      int[] grown = new int[path.length * 2];
+      System.arraycopy(path, 0, grown, 0, path.length);
+      path = grown;
+    }
+    path[depth] = node;
+  }
+
+  /** Steps back up one letter. */
+  public void pop() {
+    if (depth > 0) {
+      depth--;
+    }
+  }
+
+  /**
+   * The node of the current word, or {@link BinaryDictionary#NOT_FOUND} if the
+   * dictionary has no word starting with it.
+   */
+  public int getNode() {
+    return path[depth];
+  }
+
+  /** The number of letters in the current word. */
+  public int getDepth() {
+    return depth;
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the binary file read by {@link BinaryDictionary}.  The trie is built
+ * on the heap, so this is meant for offline use and for small word lists such
+ * as the user's own.
+ *
+ * <p>Run as a program, it compiles a UTF-8 word list with one
+ * {@code word<TAB>count} pair per line:
+ *
+ * <pre>
+ *   java net.nasepismo.ime.DictionaryWriter words.txt assets/sr.dict
+ * </pre>
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class DictionaryWriter {
+
+  private static class Node {
+    final char c;
+    final Node parent;
+    int frequency;
+    int bestFrequency;
+    int index;
+    final List<Node> children = new ArrayList<Node>();
+
+    Node(char c, Node parent) {
+      this.c = c;
+      this.parent = parent;
+    }
+
+    Node getOrAddChild(char c) {
+      int low = 0;
+      int high = children.size() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char midChar = children.get(mid).c;
+        if (midChar < c) {
+          low = mid + 1;
+        } else if (midChar > c) {
+          high = mid - 1;
+        } else {
+          return children.get(mid);
+        }
+      }
+      Node child = new Node(c, this);
+      children.add(low, child);
+      return child;
+    }
+  }
+
+  /** The most children a node may have, since the count takes one byte. */
+  static final int MAX_CHILDREN = 255;
+
+  /** The node count the format holds, since parent indices take three bytes. */
+  static final int MAX_NODES = 1 << 24;
+
+  private final Node root = new Node((char) 0, null);
+  private int nodeCount = 1;
+
+  /**
+   * Adds a word with a frequency from 1 to 255.  Words are stored in lower
+   * case; adding the same word twice keeps the higher frequency.
+   */
+  public void addWord(CharSequence word, int frequency) {
+    final int length = word.length();
+    if (length == 0 || length > BinaryDictionary.MAX_WORD_LENGTH) {
+      return;
+    }
+    frequency = Math.max(1, Math.min(255, frequency));
+    Node node = root;
+    for (int i = 0; i < length; i++) {
+      int before = node.children.size();
+      node = node.getOrAddChild(Character.toLowerCase(word.charAt(i)));
+      if (node.parent.children.size() != before) {
+        nodeCount++;
+      }
+    }
+    node.frequency = Math.max(node.frequency, frequency);
+  }
+
+  /**
+   * Maps a raw occurrence count on a logarithmic scale from 1 to 255, where
+   * 255 is reserved for {@code maxCount}.
+   */
+  public static int quantize(long count, long maxCount) {
+    if (count <= 0) {
+      return 1;
+    }
+    double scaled = Math.log(count + 1) / Math.log(maxCount + 1);
+    return Math.max(1, Math.min(255, (int) Math.round(scaled * 255)));
+  }
+
+  /**
+   * Writes the dictionary, in breadth-first order.
+   *
+   * @throws IllegalArgumentException if the trie has more than
+   *     {@link #MAX_NODES} nodes, or a node has more than
+   *     {@link #MAX_CHILDREN} children; nothing is written then
+   */
+  public void write(OutputStream stream) throws IOException {
+    if (nodeCount > MAX_NODES) {
+      throw new IllegalArgumentException(
+          "The dictionary has " + nodeCount + " nodes, more than " + MAX_NODES);
+    }
+    List<Node> order = new ArrayList<Node>(nodeCount);
+    order.add(root);
+    for (int i = 0; i < order.size(); i++) {
+      Node node = order.get(i);
+      if (node.children.size() > MAX_CHILDREN) {
+        throw new IllegalArgumentException("A node has " + node.children.size()
+            + " children, more than " + MAX_CHILDREN);
+      }
+      node.index = i;
+      order.addAll(node.children);
+    }
+    computeBestFrequency(root);
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(BinaryDictionary.MAGIC);
+    out.writeInt(BinaryDictionary.VERSION);
+    out.writeInt(order.size());
+    for (Node node : order) {
+      out.writeChar(node.c);
+      out.writeByte(node.frequency);
+      out.writeByte(node.bestFrequency);
+      out.writeInt(node.children.isEmpty() ? 0 : node.children.get(0).index);
+      int parent = node.parent == null ? 0 : node.parent.index;
+      out.writeInt((parent << 8) | node.children.size());
+    }
+    out.flush();
+  }
+
+  private static int computeBestFrequency(Node node) {
+    int best = node.frequency;
+    for (Node child : node.children) {
+      best = Math.max(best, computeBestFrequency(child));
+    }
+    node.bestFrequency = best;
+    return best;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: DictionaryWriter <words.txt> <output.dict>");
+      System.exit(1);
+    }
+    List<String> words = new ArrayList<String>();
+    List<Long> counts = new ArrayList<Long>();
+    long maxCount = 1;
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+          continue;
+        }
+        long count = Long.parseLong(line.substring(tab + 1).trim());
+        words.add(line.substring(0, tab));
+        counts.add(count);
+        maxCount = Math.max(maxCount, count);
+      }
+    } finally {
+      reader.close();
+    }
+
+    DictionaryWriter writer = new DictionaryWriter();
+    for (int i = 0; i < words.size(); i++) {
+      writer.addWord(words.get(i), quantize(counts.get(i), maxCount));
+    }
+    OutputStream out = new FileOutputStream(args[1]);
+    try {
+      writer.write(out);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * The calls which the key handling makes into an editor: the part of an
+ * input connection it needs, without the types of the platform.  On the
+ * device the calls go to the input connection of the current editor; off
+ * it, to a text kept in memory.
+ *
+ * <p>Arguments and results are those of the same methods of
+ * android.view.inputmethod.InputConnection.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public interface Editor {
+
+  CharSequence getTextBeforeCursor(int n, int flags);
+
+  int getCursorCapsMode(int reqModes);
+
+  boolean setComposingText(CharSequence text, int newCursorPosition);
+
+  boolean commitText(CharSequence text, int newCursorPosition);
+
+  boolean finishComposingText();
+
+  boolean deleteSurroundingText(int leftLength, int rightLength);
+
+  boolean beginBatchEdit();
+
+  boolean endBatchEdit();
+
+  /**
+   * Sends a key down and a key up event for {@code keyCode}, a key code of
+   * android.view.KeyEvent.
+   *
+   * @param c the character the key types, or 0 if it types none
+   */
+  boolean sendKeyDownUp(int keyCode, int c);
+}
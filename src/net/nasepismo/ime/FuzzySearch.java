@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Finds the dictionary words within a small edit distance of a typed word,
+ * so that typos can be corrected rather than only completed.
+ *
+ * <p>The search walks the trie depth first and keeps one row of the edit
+ * distance table per level, so the words sharing a prefix share its rows.  A
+ * subtree is left out as soon as every entry of its row is over the bound, or
+ * once even its most frequent word, at the cheapest distance left, could not
+ * make it into the suggestions.  Swapping two neighbouring letters counts as
+ * one edit, and hitting a key next to the intended one as half of one.
+ *
+ * <p>Each word typed gets a fixed budget of nodes and time, shared by all the
+ * dictionaries searched for it; a search which runs out of budget just offers
+ * what it has found so far.
+ *
+ * <p>Other than {@link #setAdjacency}, the methods must be called on a single
+ * thread.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class FuzzySearch {
+
+  /** The cost of inserting, deleting, swapping or replacing a letter. */
+  public static final int EDIT_COST = 4;
+
+  /** The cost of replacing a letter by one on a neighbouring key. */
+  public static final int NEAR_COST = 2;
+
+  /** How much of a word's frequency each unit of cost takes off its score. */
+  static final int COST_PENALTY = 32;
+
+  /** Words up to this long are allowed one edit, longer ones two. */
+  static final int SHORT_WORD = 4;
+
+  /** Shorter words are not searched, as too many words are close to them. */
+  static final int MIN_LENGTH = 2;
+
+  static final int MAX_NODES = 20000;
+  static final long TIME_BUDGET_NS = 10 * 1000 * 1000;
+
+  /** How many nodes are visited between looks at the clock. */
+  private static final int CLOCK_INTERVAL = 256;
+
+  private static final int ROW_SIZE = BinaryDictionary.MAX_WORD_LENGTH + 1;
+
+  private volatile KeyAdjacency adjacency;
+
+  private final char[] typed = new char[BinaryDictionary.MAX_WORD_LENGTH];
+  private final int[] rows = new int[ROW_SIZE * ROW_SIZE];
+  private final char[] path = new char[ROW_SIZE];
+  private int length;
+  private int maxCost;
+  private int maxDepth;
+  private long deadline;
+  private int visitedCount;
+  private boolean truncated;
+
+  // The search in progress.
+  private KeyAdjacency keys;
+  private BinaryDictionary dictionary;
+  private int idBase;
+  private Suggestions out;
+
+  /** Sets the keyboard whose neighbouring keys make cheaper replacements. */
+  public void setAdjacency(KeyAdjacency adjacency) {
+    this.adjacency = adjacency;
+  }
+
+  /**
+   * Starts the searches for {@code word}, along with a new budget.  Words too
+   * short or too long to search for leave the searches empty.
+   */
+  public void start(CharSequence word) {
+    length = word.length();
+    if (length < MIN_LENGTH || length > BinaryDictionary.MAX_WORD_LENGTH - 2) {
+      length = 0;
+    }
+    for (int i = 0; i < length; i++) {
+      typed[i] = Character.toLowerCase(word.charAt(i));
+    }
+    for (int j = 0; j <= length; j++) {
+      rows[j] = j * EDIT_COST;
+    }
+    maxCost = length <= SHORT_WORD ? EDIT_COST : 2 * EDIT_COST;
+    maxDepth = length + maxCost / EDIT_COST;
+    keys = adjacency;
+    deadline = System.nanoTime() + TIME_BUDGET_NS;
+    visitedCount = 0;
+    truncated = false;
+  }
+
+  /**
+   * Offers the words of {@code dictionary} close to the word given to
+   * {@link #start}, other than the word itself, to {@code out}.  The score of
+   * a word is its frequency less a penalty for its distance.
+   *
+   * @param idBase added to the node ids of the words offered
+   */
+  public void search(BinaryDictionary dictionary, int idBase, Suggestions out) {
+    if (length == 0) {
+      return;
+    }
+    this.dictionary = dictionary;
+    this.idBase = idBase;
+    this.out = out;
+    final int first = dictionary.getFirstChild(BinaryDictionary.ROOT);
+    final int end = first + dictionary.getChildCount(BinaryDictionary.ROOT);
+    for (int child = first; child < end && !truncated; child++) {
+      visit(child, 1);
+    }
+    this.dictionary = null;
+    this.out = null;
+  }
+
+  /** The number of trie nodes visited since {@link #start}. */
+  public int getVisitedCount() {
+    return visitedCount;
+  }
+
+  /** Whether the searches since {@link #start} ran out of budget. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  private void visit(int node, int depth) {
+    if (++visitedCount > MAX_NODES
+        || (visitedCount % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+      truncated = true;
+      return;
+    }
+    final char c = dictionary.getChar(node);
+    path[depth] = c;
+    final int previous = (depth - 1) * ROW_SIZE;
+    final int row = depth * ROW_SIZE;
+    rows[row] = rows[previous] + EDIT_COST;
+    int best = rows[row];
+    for (int j = 1; j <= length; j++) {
+      int cost = Math.min(rows[previous + j], rows[row + j - 1]) + EDIT_COST;
+      cost = Math.min(cost, rows[previous + j - 1] + substitutionCost(c, typed[j - 1]));
+      if (depth > 1 && j > 1 && c == typed[j - 2] && path[depth - 1] == typed[j - 1]
+          && c != typed[j - 1]) {
+        cost = Math.min(cost, rows[row - 2 * ROW_SIZE + j - 2] + EDIT_COST);
+      }
+      rows[row + j] = cost;
+      best = Math.min(best, cost);
+    }
+    if (best > maxCost) {
+      return;
+    }
+    final int threshold = Math.max(0, out.getThreshold());
+    if (dictionary.getBestFrequency(node) - best * COST_PENALTY <= threshold) {
+      return;
+    }
+
+    final int distance = rows[row + length];
+    final int frequency = dictionary.getFrequency(node);
+    if (frequency > 0 && distance > 0 && distance <= maxCost) {
+      final int score = frequency - distance * COST_PENALTY;
+      if (score > threshold) {
+        out.offer(idBase + node, score);
+      }
+    }
+    if (depth < maxDepth) {
+      final int first = dictionary.getFirstChild(node);
+      final int end = first + dictionary.getChildCount(node);
+      for (int child = first; child < end && !truncated; child++) {
+        visit(child, depth + 1);
+      }
+    }
+  }
+
+  private int substitutionCost(char letter, char typedLetter) {
+    if (letter == typedLetter) {
+      return 0;
+    }
+    if (keys != null && keys.isAdjacent(letter, typedLetter)) {
+      return NEAR_COST;
+    }
+    return EDIT_COST;
+  }
+}
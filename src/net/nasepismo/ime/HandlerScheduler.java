@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * A {@link Scheduler} on the thread of a Handler, against the uptime clock.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class HandlerScheduler implements Scheduler {
+
+  private final Handler handler;
+
+  public HandlerScheduler(Handler handler) {
+    this.handler = handler;
+  }
+
+  public long uptimeMillis() {
+    return SystemClock.uptimeMillis();
+  }
+
+  public void post(Runnable task) {
+    handler.post(task);
+  }
+
+  public void postAtTime(Runnable task, long time) {
+    handler.postAtTime(task, time);
+  }
+
+  public void removeCallbacks(Runnable task) {
+    handler.removeCallbacks(task);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.util.Arrays;
+
+/**
+ * Which letters sit on neighbouring keys of a keyboard, so that a slip of the
+ * finger onto the next key can be told from any other typo.
+ *
+ * <p>The letters are kept sorted, and the neighbours of each one as a bit set
+ * over their indices; a keyboard has far fewer than 64 letters.  Letters are
+ * compared in lower case.  Once built, an adjacency is not changed, so it may
+ * be shared between threads.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyAdjacency {
+
+  /** The most letters an adjacency can hold; any beyond are ignored. */
+  static final int MAX_LETTERS = 64;
+
+  private final char[] letters;
+  private final long[] neighbours;
+
+  /** @param letters the letters on the keyboard, in any order */
+  public KeyAdjacency(CharSequence letters) {
+    char[] sorted = new char[letters.length()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = Character.toLowerCase(letters.charAt(i));
+    }
+    Arrays.sort(sorted);
+    int count = 0;
+    for (int i = 0; i < sorted.length && count < MAX_LETTERS; i++) {
+      if (count == 0 || sorted[count - 1] != sorted[i]) {
+        sorted[count++] = sorted[i];
+      }
+    }
+    this.letters = new char[count];
+    System.arraycopy(sorted, 0, this.letters, 0, count);
+    neighbours = new long[count];
+  }
+
+  /** Marks {@code a} and {@code b} as neighbours; for building only. */
+  public void setAdjacent(char a, char b) {
+    final int i = indexOf(a);
+    final int j = indexOf(b);
+    if (i >= 0 && j >= 0 && i != j) {
+      neighbours[i] |= 1L << j;
+      neighbours[j] |= 1L << i;
+    }
+  }
+
+  /** Whether {@code a} and {@code b} are on neighbouring keys. */
+  public boolean isAdjacent(char a, char b) {
+    final int i = indexOf(a);
+    final int j = indexOf(b);
+    return i >= 0 && j >= 0 && (neighbours[i] & (1L << j)) != 0;
+  }
+
+  private int indexOf(char c) {
+    return Arrays.binarySearch(letters, Character.toLowerCase(c));
+  }
+}
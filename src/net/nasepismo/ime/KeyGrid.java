@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * A uniform grid over the keys of a keyboard, which answers which key a touch
+ * hits and which keys are near it without looking at every key.
+ *
+ * <p>Each key is given by its touch area, which may differ from where it is
+ * drawn, and may be open towards the keyboard's edges so that a touch past
+ * the edge still hits the key.  For every cell of the grid, the keys whose
+ * area comes within the proximity threshold of the cell are listed in key
+ * order, up front.  A query then only looks at the keys of one cell, so it
+ * takes time bounded by the number of keys near the touch.
+ *
+ * <p>Distances are squared, in pixels, from the touch to the nearest point of
+ * a key's area, so the key that is hit is at distance 0.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyGrid {
+
+  /** An edge coordinate for an area which is open on that side. */
+  public static final int OPEN = 1 << 24;
+
+  static final int GRID_WIDTH = 10;
+  static final int GRID_HEIGHT = 5;
+
+  private final int cellWidth;
+  private final int cellHeight;
+  private final int[] left;
+  private final int[] top;
+  private final int[] right;
+  private final int[] bottom;
+  private final int[][] cells;
+
+  /**
+   * @param width the width of the keyboard
+   * @param height the height of the keyboard
+   * @param left the left edges of the keys' touch areas, or {@code -OPEN}
+   * @param top the top edges, or {@code -OPEN}
+   * @param right the right edges, exclusive, or {@code OPEN}
+   * @param bottom the bottom edges, exclusive, or {@code OPEN}
+   * @param proximity how far from a touch a key still counts as near it
+   */
+  public KeyGrid(int width, int height, int[] left, int[] top, int[] right, int[] bottom,
+      int proximity) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+    cellWidth = Math.max(1, (width + GRID_WIDTH - 1) / GRID_WIDTH);
+    cellHeight = Math.max(1, (height + GRID_HEIGHT - 1) / GRID_HEIGHT);
+    cells = new int[GRID_WIDTH * GRID_HEIGHT][];
+
+    final long threshold = (long) proximity * proximity;
+    final int[] found = new int[left.length];
+    for (int row = 0; row < GRID_HEIGHT; row++) {
+      for (int column = 0; column < GRID_WIDTH; column++) {
+        final int cellLeft = column * cellWidth;
+        final int cellTop = row * cellHeight;
+        int count = 0;
+        for (int key = 0; key < left.length; key++) {
+          long dx = Math.max(0, Math.max((long) left[key] - (cellLeft + cellWidth),
+              (long) cellLeft - right[key]));
+          long dy = Math.max(0, Math.max((long) top[key] - (cellTop + cellHeight),
+              (long) cellTop - bottom[key]));
+          if (dx * dx + dy * dy <= threshold) {
+            found[count++] = key;
+          }
+        }
+        int[] cell = new int[count];
+        System.arraycopy(found, 0, cell, 0, count);
+        cells[row * GRID_WIDTH + column] = cell;
+      }
+    }
+  }
+
+  /**
+   * The keys near {@code (x, y)}, in key order.  The array is shared and must
+   * not be changed.
+   */
+  public int[] getCandidates(int x, int y) {
+    final int column = Math.max(0, Math.min(GRID_WIDTH - 1, x / cellWidth));
+    final int row = Math.max(0, Math.min(GRID_HEIGHT - 1, y / cellHeight));
+    return cells[row * GRID_WIDTH + column];
+  }
+
+  /** Whether {@code (x, y)} falls in the touch area of {@code key}. */
+  public boolean isInside(int key, int x, int y) {
+    return x >= left[key] && x < right[key] && y >= top[key] && y < bottom[key];
+  }
+
+  /**
+   * The key hit by a touch at {@code (x, y)}, or -1.  Where areas overlap, the
+   * first key in key order wins.
+   */
+  public int findKey(int x, int y) {
+    for (int key : getCandidates(x, y)) {
+      if (isInside(key, x, y)) {
+        return key;
+      }
+    }
+    return -1;
+  }
+
+  /** The squared distance from {@code (x, y)} to the touch area of {@code key}. */
+  public int getSquaredDistance(int key, int x, int y) {
+    long dx = Math.max(0, Math.max((long) left[key] - x, (long) x - (right[key] - 1)));
+    long dy = Math.max(0, Math.max((long) top[key] - y, (long) y - (bottom[key] - 1)));
+    return (int) Math.min(Integer.MAX_VALUE, dx * dx + dy * dy);
+  }
+
+  /**
+   * Ranks the keys near {@code (x, y)} by distance, nearest first; keys at the
+   * same distance stay in key order, so the key hit comes first.
+   *
+   * @param keys receives the keys
+   * @param distances receives their squared distances
+   * @return how many keys were written, at most the length of the arrays
+   */
+  public int findNearest(int x, int y, int[] keys, int[] distances) {
+    int count = 0;
+    for (int key : getCandidates(x, y)) {
+      final int distance = getSquaredDistance(key, x, y);
+      // Insertion into the ranked arrays, dropping whatever falls off the end.
+      int i = count < keys.length ? count++ : keys.length;
+      while (i > 0 && distances[i - 1] > distance) {
+        if (i < keys.length) {
+          keys[i] = keys[i - 1];
+          distances[i] = distances[i - 1];
+        }
+        i--;
+      }
+      if (i < keys.length) {
+        keys[i] = key;
+        distances[i] = distance;
+      }
+    }
+    return count;
+  }
+}
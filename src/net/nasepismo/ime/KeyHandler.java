@@ -0,0 +1,652 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * The handling of the keys which type text, from either keyboard: what goes
+ * into the composing text, what is committed, and when it is sent to the
+ * editor.  It knows nothing of the platform, so the benchmarks replay the
+ * same code which SoftKeyboard runs, against an editor kept in memory.
+ *
+ * <p>The service keeps the views and the keys which only act on them, and
+ * answers for them through a {@link Host}.  Calls go to the editor through a
+ * {@link CoalescingEditor}, with each key as one edit; the repeats of a hard
+ * key held down are sent once a frame, by the scheduler.  Must be used on
+ * the thread of the scheduler.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyHandler {
+
+  /** The delete key of the soft keyboard, as in android.inputmethodservice.Keyboard. */
+  public static final int KEYCODE_DELETE = -5;
+
+  // Keys of the hard keyboard, as in android.view.KeyEvent.
+  public static final int KEYCODE_0 = 7;
+  public static final int KEYCODE_ENTER = 66;
+  public static final int KEYCODE_DEL = 67;
+
+  /** The input type of a field which takes no text, as in android.text.InputType. */
+  private static final int TYPE_NULL = 0;
+
+  /** What the key handling needs of the service around it. */
+  public interface Host {
+    /** The editor being typed into, or null if there is none. */
+    CoalescingEditor getEditor();
+
+    /** Whether the keyboard on screen is shifted; false if none is shown. */
+    boolean isShifted();
+
+    /** Whether the letter keyboard is on screen, whose shift follows the caps mode. */
+    boolean isLetterKeyboardShown();
+
+    /** Shifts the letter keyboard on screen, or not, for the caps mode at the cursor. */
+    void setShifted(boolean capsMode);
+
+    /**
+     * Shows the words likely to follow {@link KeyHandler#getLastWord}, or
+     * nothing, as there is no composing text.
+     */
+    void showPredictions();
+
+    /** Learns a word the user has typed, as it is committed. */
+    void onWordCommitted(CharSequence word);
+  }
+
+  private final Host host;
+  private final CharacterTable characters;
+  private BinaryDictionary dictionary;
+  private final SuggestionWorker suggestionWorker;
+  private final ShadowText shadow;
+  private final KeyTimings timings;
+  private final Scheduler scheduler;
+  private final Composer composing;
+
+  private int inputType;
+  private boolean enablePrediction;
+  private boolean enableCompletion;
+  private boolean transliterate;
+
+  // The dictionary words of the last two committed words, most recent first,
+  // or NOT_FOUND.
+  private int lastWord = BinaryDictionary.NOT_FOUND;
+  private int wordBeforeLast = BinaryDictionary.NOT_FOUND;
+
+  // The selection in the editor, as last reported.
+  private int selectionStart;
+  private int selectionEnd;
+
+  /** The text of a single key committed, reused so that typing allocates nothing. */
+  private final StringBuilder keyText = new StringBuilder(1);
+
+  /** The head of an overlong composition, as it is committed. */
+  private final StringBuilder headText = new StringBuilder(Composer.MAX_LENGTH);
+
+  // A burst of auto-repeated hard keys: the text to commit and whether the
+  // composing text changed, both not yet sent to the editor.
+  private final Runnable repeatFlusher = new Runnable() {
+    public void run() {
+      flushRepeats();
+    }
+  };
+  private boolean inRepeatBurst;
+  private boolean isRepeatFlushScheduled;
+  private final StringBuilder repeatText = new StringBuilder();
+  private boolean composingChanged;
+
+  /**
+   * @param dictionary the main dictionary, or null if there is none
+   * @param shadow the shadow which the host's editors keep up to date
+   */
+  public KeyHandler(Host host, CharacterTable characters, BinaryDictionary dictionary,
+      SuggestionWorker suggestionWorker, ShadowText shadow, KeyTimings timings,
+      Scheduler scheduler) {
+    this.host = host;
+    this.characters = characters;
+    this.dictionary = dictionary;
+    this.suggestionWorker = suggestionWorker;
+    this.shadow = shadow;
+    this.timings = timings;
+    this.scheduler = scheduler;
+    composing = new Composer(dictionary);
+  }
+
+  /**
+   * Tracks words in {@code dictionary} from now on, as when it has been
+   * opened after the handler was made.  The word being composed is looked up
+   * anew; the words committed before are only known by their text.
+   */
+  public void setDictionary(BinaryDictionary dictionary) {
+    this.dictionary = dictionary;
+    composing.setDictionary(dictionary);
+  }
+
+  /**
+   * Starts on a new editor, or on the same one over again.
+   *
+   * @param enablePrediction whether letters are composed, with suggestions
+   * @param enableCompletion whether the editor's completions are shown
+   *     instead of suggestions
+   */
+  public void startInput(int inputType, int initialSelStart, int initialSelEnd,
+      boolean enablePrediction, boolean enableCompletion) {
+    // Reset our state.  We want to do this even if restarting, because
+    // the underlying state of the text editor could have changed in any way.
+    if (isRepeatFlushScheduled) {
+      isRepeatFlushScheduled = false;
+      scheduler.removeCallbacks(repeatFlusher);
+    }
+    inRepeatBurst = false;
+    repeatText.setLength(0);
+    composingChanged = false;
+    composing.clear();
+    forgetWords();
+    updateCandidates();
+    selectionStart = initialSelStart;
+    selectionEnd = initialSelEnd;
+    final CoalescingEditor editor = host.getEditor();
+    if (editor != null && selectionStart == selectionEnd) {
+      shadow.seed(editor.getTextBeforeCursor(ShadowText.CAPACITY, 0), selectionStart);
+    } else {
+      shadow.invalidate();
+    }
+    this.inputType = inputType;
+    this.enablePrediction = enablePrediction;
+    this.enableCompletion = enableCompletion;
+  }
+
+  /** Sends what is still held back, and clears the composing text. */
+  public void finishInput() {
+    endRepeatBurst();
+    final CoalescingEditor editor = host.getEditor();
+    if (editor != null) {
+      editor.flush();
+    }
+    composing.clear();
+    forgetWords();
+    updateCandidates();
+  }
+
+  /** Deals with the editor reporting movement of its cursor. */
+  public void onUpdateSelection(int newSelStart, int newSelEnd,
+      int candidatesStart, int candidatesEnd) {
+    selectionStart = newSelStart;
+    selectionEnd = newSelEnd;
+    shadow.onSelectionUpdate(candidatesStart >= 0 ? candidatesStart : newSelStart,
+        newSelStart == newSelEnd);
+
+    // If the current selection in the text view changes, we should
+    // clear whatever candidate text we have.
+    if (composing.length() > 0 && (newSelStart != candidatesEnd
+        || newSelEnd != candidatesEnd)) {
+      composing.clear();
+      updateCandidates();
+      final CoalescingEditor editor = host.getEditor();
+      if (editor != null) {
+        editor.finishComposingText();
+      }
+    }
+  }
+
+  /**
+   * Handles a key of the soft keyboard which types text or deletes it: a
+   * separator, {@link #KEYCODE_DELETE} or a character, as one edit.  The keys
+   * of the hard keyboard come here too, when they are handled as soft keys.
+   */
+  public void onKey(int primaryCode, int[] keyCodes) {
+    final CoalescingEditor editor = host.getEditor();
+    if (editor == null) {
+      return;
+    }
+    endRepeatBurst();
+    final long start = timings.start();
+    final boolean separator = characters.isSeparator(primaryCode);
+    timings.stop(KeyTimings.CLASSIFY, start);
+    editor.beginEdit();
+    if (separator) {
+      handleSeparator(editor, primaryCode);
+      updateShiftKeyState();
+    } else if (primaryCode == KEYCODE_DELETE) {
+      handleBackspace(editor);
+    } else {
+      handleCharacter(editor, primaryCode, keyCodes);
+    }
+    timings.stop(KeyTimings.KEY, start);
+    editor.endEdit();
+  }
+
+  /** Commits {@code text}, as typed by a key which types more than a character. */
+  public void onText(CharSequence text) {
+    final CoalescingEditor editor = host.getEditor();
+    if (editor == null) {
+      return;
+    }
+    endRepeatBurst();
+    editor.beginBatchEdit();
+    commitTyped(editor);
+    editor.commitText(text, 0);
+    editor.endBatchEdit();
+    updateShiftKeyState();
+  }
+
+  /**
+   * Handles a character typed on the hard keyboard.  A repeat of the key
+   * held down is sent with the other repeats of its frame, and otherwise it
+   * goes the soft key path without what only matters on screen: the
+   * character comes in the case its meta state gives it, and the shift key
+   * of the soft keyboard is left alone.
+   *
+   * @param c the character, which may be an accent for the next one
+   * @param repeated whether the key is held down
+   * @return whether the character was taken; if not, the editor is to handle
+   *     the key itself
+   */
+  public boolean onHardKey(int c, boolean repeated) {
+    final CoalescingEditor editor = host.getEditor();
+    if (c == 0 || editor == null) {
+      return false;
+    }
+    if (!repeated) {
+      endRepeatBurst();
+    }
+
+    if (composing.length() > 0) {
+      char accent = composing.charAt(composing.length() - 1);
+      int composed = characters.getDeadChar(accent, c);
+
+      if (composed != 0) {
+        c = composed;
+        composing.deleteLast();
+        if (repeated) {
+          composingChanged = true;
+        }
+      }
+    }
+
+    if (repeated) {
+      handleRepeatedKey(c);
+      return true;
+    }
+    final long start = timings.start();
+    final boolean separator = characters.isSeparator(c);
+    timings.stop(KeyTimings.CLASSIFY, start);
+    editor.beginEdit();
+    if (separator) {
+      handleSeparator(editor, c);
+    } else if (characters.isLetter(c) && enablePrediction) {
+      composeLetter(editor, c);
+      updateCandidates();
+    } else {
+      commitKey(editor, c);
+    }
+    timings.stop(KeyTimings.KEY, start);
+    editor.endEdit();
+    return true;
+  }
+
+  /**
+   * Handles the delete key of the hard keyboard: if we currently are
+   * composing text for the user, we want to modify that instead of let the
+   * application do the delete itself.
+   *
+   * @return whether the key was taken
+   */
+  public boolean onDeleteKeyDown(int repeatCount) {
+    if (composing.length() > 0 && repeatCount > 0) {
+      handleRepeatedDelete();
+      return true;
+    }
+    endRepeatBurst();
+    if (composing.length() > 0) {
+      onKey(KEYCODE_DELETE, null);
+      return true;
+    }
+    return false;
+  }
+
+  /** Ends the repeats of a hard key held down, as some key is let go. */
+  public void onKeyUp() {
+    endRepeatBurst();
+  }
+
+  /**
+   * Handles a hard key repeated by holding it down.  The repeats only change
+   * the text kept here, which is sent once per frame; suggestions wait until
+   * the key is let go.  Each repeat is of the key before it, so a burst
+   * either grows the composing text or adds to the text committed.
+   */
+  private void handleRepeatedKey(int c) {
+    if (!inRepeatBurst) {
+      inRepeatBurst = true;
+      suggestionWorker.cancel();
+    }
+    if (characters.isLetter(c) && enablePrediction && !characters.isSeparator(c)) {
+      composing.append((char) c, transliterate);
+      final int overflow = composing.getOverflow();
+      if (overflow > 0) {
+        // Committing the text replaces the composing text in the editor, so
+        // the head goes out first and the tail is composed after it.
+        repeatText.append(composing, 0, overflow);
+        composing.dropHead(overflow);
+      }
+      composingChanged = true;
+    } else {
+      repeatText.append((char) c);
+    }
+    scheduleRepeatFlush();
+  }
+
+  /**
+   * Takes back a letter of the composing text for a repeat of the delete
+   * key, to be sent with the other repeats of the frame.
+   */
+  private void handleRepeatedDelete() {
+    if (!inRepeatBurst) {
+      inRepeatBurst = true;
+      suggestionWorker.cancel();
+    }
+    if (composing.length() > 1) {
+      composing.deleteLast();
+    } else {
+      composing.clear();
+    }
+    composingChanged = true;
+    scheduleRepeatFlush();
+  }
+
+  /** Sends the repeats at the end of the frame of the first of them. */
+  private void scheduleRepeatFlush() {
+    if (!isRepeatFlushScheduled) {
+      isRepeatFlushScheduled = true;
+      scheduler.postAtTime(repeatFlusher,
+          scheduler.uptimeMillis() + CoalescingEditor.FRAME_MS);
+    }
+  }
+
+  /** Sends what the repeats of the current frame changed, in one edit. */
+  private void flushRepeats() {
+    if (isRepeatFlushScheduled) {
+      isRepeatFlushScheduled = false;
+      scheduler.removeCallbacks(repeatFlusher);
+    }
+    if (repeatText.length() == 0 && !composingChanged) {
+      return;
+    }
+    final CoalescingEditor editor = host.getEditor();
+    if (editor != null) {
+      editor.beginEdit();
+      if (repeatText.length() > 0) {
+        // Ends the composing text in the coalescer as well, so that the new
+        // composing text below goes with it rather than a frame later.
+        editor.commitText(repeatText, 1);
+      }
+      if (composingChanged) {
+        if (composing.length() > 0) {
+          editor.setComposingText(composing, 1);
+        } else {
+          editor.commitText("", 0);
+        }
+      }
+      editor.endEdit();
+    }
+    repeatText.setLength(0);
+    composingChanged = false;
+  }
+
+  /**
+   * Ends a burst of repeated keys, if one is going on: sends what is left of
+   * it, and brings the suggestions up to date.
+   */
+  private void endRepeatBurst() {
+    flushRepeats();
+    if (inRepeatBurst) {
+      inRepeatBurst = false;
+      updateCandidates();
+    }
+  }
+
+  /** Whether there is composing text. */
+  public boolean isComposing() {
+    return composing.length() > 0;
+  }
+
+  /** Whether letters are composed, with suggestions, in the current editor. */
+  public boolean isPredictionEnabled() {
+    return enablePrediction;
+  }
+
+  /** Whether the current editor's completions are shown instead of suggestions. */
+  public boolean isCompletionEnabled() {
+    return enableCompletion;
+  }
+
+  /** Whether Latin letters are converted to Cyrillic as they are typed. */
+  public boolean isTransliterating() {
+    return transliterate;
+  }
+
+  public void setTransliterate(boolean transliterate) {
+    this.transliterate = transliterate;
+    composing.resetTransliteration();
+  }
+
+  /** The dictionary word of the last committed word, or NOT_FOUND. */
+  public int getLastWord() {
+    return lastWord;
+  }
+
+  /** The dictionary word of the word committed before the last, or NOT_FOUND. */
+  public int getWordBeforeLast() {
+    return wordBeforeLast;
+  }
+
+  public int getSelectionStart() {
+    return selectionStart;
+  }
+
+  public int getSelectionEnd() {
+    return selectionEnd;
+  }
+
+  /**
+   * Replaces the composing text with the {@code length} characters of
+   * {@code chars} from {@code start}, such as a picked suggestion.
+   */
+  public void replaceComposing(char[] chars, int start, int length) {
+    composing.replace(chars, start, length);
+  }
+
+  /**
+   * Helper function to commit any text being composed in to the editor.
+   */
+  public void commitTyped() {
+    final CoalescingEditor editor = host.getEditor();
+    if (editor != null) {
+      endRepeatBurst();
+      commitTyped(editor);
+    }
+  }
+
+  private void commitTyped(Editor editor) {
+    if (composing.length() > 0) {
+      editor.commitText(composing, composing.length());
+      rememberWord(composing);
+      host.onWordCommitted(composing);
+      composing.clear();
+      updateCandidates();
+    }
+  }
+
+  /**
+   * Helper to update the shift state of our keyboard based on the editor
+   * state.
+   */
+  public void updateShiftKeyState() {
+    if (!host.isLetterKeyboardShown()) {
+      return;
+    }
+    int caps = 0;
+    final CoalescingEditor editor = host.getEditor();
+    if (editor != null && inputType != TYPE_NULL) {
+      if (composing.length() > 0) {
+        // Within a word only a field in capitals asks for them, so the
+        // editor, which may not have the latest composing text yet, need
+        // not be asked.
+        caps = inputType & ShadowText.CAP_MODE_CHARACTERS;
+      } else {
+        caps = getCursorCapsMode(editor, inputType);
+      }
+    }
+    host.setShifted(caps != 0);
+  }
+
+  /**
+   * The caps mode at the cursor, from the shadow of the text before it.  If
+   * the shadow is stale it is read again from the editor, at the cost of the
+   * round trip that asking the editor for the caps mode would take.
+   */
+  private int getCursorCapsMode(Editor editor, int reqModes) {
+    if (!shadow.isValid() && selectionStart == selectionEnd) {
+      shadow.seed(editor.getTextBeforeCursor(ShadowText.CAPACITY, 0), selectionStart);
+    }
+    if (!shadow.isValid()) {
+      return editor.getCursorCapsMode(reqModes);
+    }
+    return shadow.getCapsMode(reqModes);
+  }
+
+  /** Commits the single character {@code code}. */
+  private void commitKey(Editor editor, int code) {
+    keyText.setLength(0);
+    keyText.append((char) code);
+    editor.commitText(keyText, 1);
+  }
+
+  /**
+   * Helper to send a character to the editor as raw key events.
+   */
+  private void sendKey(Editor editor, int code) {
+    if (code == '\n') {
+      editor.sendKeyDownUp(KEYCODE_ENTER, code);
+    } else if (code >= '0' && code <= '9') {
+      editor.sendKeyDownUp(code - '0' + KEYCODE_0, code);
+    } else {
+      commitKey(editor, code);
+    }
+  }
+
+  private void handleSeparator(Editor editor, int code) {
+    commitTyped(editor);
+    sendKey(editor, code);
+    if (code != ' ' && code != ',') {
+      // The next word starts a new sentence or clause.
+      forgetWords();
+      updateCandidates();
+    }
+  }
+
+  private void handleBackspace(Editor editor) {
+    final int length = composing.length();
+    if (length > 1) {
+      composing.deleteLast();
+      editor.setComposingText(composing, 1);
+      updateCandidates();
+    } else if (length > 0) {
+      composing.clear();
+      editor.commitText("", 0);
+      updateCandidates();
+    } else {
+      editor.sendKeyDownUp(KEYCODE_DEL, 0);
+      if (lastWord != BinaryDictionary.NOT_FOUND) {
+        forgetWords();
+        updateCandidates();
+      }
+    }
+    updateShiftKeyState();
+  }
+
+  private void handleCharacter(Editor editor, int primaryCode, int[] keyCodes) {
+    if (host.isShifted()) {
+      primaryCode = characters.toUpperCase(primaryCode);
+    }
+    if (characters.isLetter(primaryCode) && enablePrediction) {
+      composeLetter(editor, primaryCode);
+      updateShiftKeyState();
+      updateCandidates();
+    } else {
+      commitKey(editor, primaryCode);
+    }
+  }
+
+  /** Adds a letter to the composing text and sends it to the editor. */
+  private void composeLetter(Editor editor, int c) {
+    final long start = timings.start();
+    composing.append((char) c, transliterate);
+    final int overflow = composing.getOverflow();
+    if (overflow > 0) {
+      commitHead(editor, overflow);
+    }
+    editor.setComposingText(composing, 1);
+    timings.stop(KeyTimings.COMPOSE, start);
+  }
+
+  /**
+   * Commits the first {@code count} letters of an overlong composition on
+   * their own, so that long runs of letters do not resend all of them for
+   * each one typed.  The rest stays composing, with its own suggestions.
+   */
+  private void commitHead(Editor editor, int count) {
+    headText.setLength(0);
+    headText.append(composing, 0, count);
+    composing.dropHead(count);
+    editor.commitText(headText, 1);
+  }
+
+  /**
+   * Update the list of available candidates from the current composing
+   * text.  The candidates are computed by the suggestion worker, and the
+   * predictions for the next word are shown when there is nothing composing.
+   */
+  private void updateCandidates() {
+    if (!enableCompletion) {
+      if (composing.length() > 0) {
+        suggestionWorker.request(composing, composing.getNode());
+      } else {
+        suggestionWorker.cancel();
+        host.showPredictions();
+      }
+    }
+  }
+
+  /** Remembers a committed word as the context for the next predictions. */
+  private void rememberWord(CharSequence word) {
+    int node = BinaryDictionary.NOT_FOUND;
+    if (dictionary != null) {
+      node = dictionary.findPrefix(word);
+      if (node != BinaryDictionary.NOT_FOUND && !dictionary.isWord(node)) {
+        node = BinaryDictionary.NOT_FOUND;
+      }
+    }
+    wordBeforeLast = lastWord;
+    lastWord = node;
+  }
+
+  private void forgetWords() {
+    lastWord = BinaryDictionary.NOT_FOUND;
+    wordBeforeLast = BinaryDictionary.NOT_FOUND;
+  }
+}
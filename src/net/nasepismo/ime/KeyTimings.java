@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.PrintWriter;
+
+/**
+ * How long the stages of handling a key take, as a {@link LatencyHistogram}
+ * per stage.
+ *
+ * <p>A stage is timed by taking {@link #start} before it and passing that to
+ * {@link #stop} after it; {@code stop} returns the time it read, so that
+ * stages which follow each other need one clock read apiece.  When timing is
+ * off, both return at once without reading the clock.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyTimings {
+
+  /** All of the handling of a key on the main thread. */
+  public static final int KEY = 0;
+  /** Telling what kind of key it is. */
+  public static final int CLASSIFY = 1;
+  /** Updating the composing text, including sending it to the editor. */
+  public static final int COMPOSE = 2;
+  /** Computing the suggestions, on the worker thread. */
+  public static final int CANDIDATES = 3;
+  /** Measuring and placing the suggestions in the candidate view. */
+  public static final int LAYOUT = 4;
+  /** Drawing the candidate view. */
+  public static final int DRAW = 5;
+  /** A single call into the editor. */
+  public static final int IPC = 6;
+
+  private static final String[] NAMES = {
+      "key", "classify", "compose", "candidates", "layout", "draw", "ipc",
+  };
+
+  /** Timings which are off, for when there is nowhere to record them. */
+  public static final KeyTimings OFF = new KeyTimings(false);
+
+  private final boolean enabled;
+  private final LatencyHistogram[] histograms = new LatencyHistogram[NAMES.length];
+
+  public KeyTimings(boolean enabled) {
+    this.enabled = enabled;
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** The time a stage starts, or 0 if timing is off. */
+  public long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records a stage which started at {@code start}.
+   *
+   * @return the time it ended, to start the next stage with, or 0 if timing
+   *     is off
+   */
+  public long stop(int stage, long start) {
+    if (!enabled) {
+      return 0;
+    }
+    final long now = System.nanoTime();
+    histograms[stage].record(now - start);
+    return now;
+  }
+
+  public LatencyHistogram getHistogram(int stage) {
+    return histograms[stage];
+  }
+
+  public void clear() {
+    for (LatencyHistogram histogram : histograms) {
+      histogram.clear();
+    }
+  }
+
+  /** Prints a line per stage, with its durations in microseconds. */
+  public void dump(PrintWriter out, String prefix) {
+    if (!enabled) {
+      out.println(prefix + "Key timings are off");
+      return;
+    }
+    for (int i = 0; i < histograms.length; i++) {
+      final LatencyHistogram histogram = histograms[i];
+      out.println(prefix + NAMES[i] + ": n=" + histogram.getCount()
+          + " p50=" + histogram.getPercentile(50) + "us"
+          + " p99=" + histogram.getPercentile(99) + "us"
+          + " max=" + histogram.getMax() + "us"
+          + " mean=" + histogram.getMean() + "us");
+    }
+  }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compact record of the events an input method gets from the system, so
+ * that a session can be played back exactly as it happened: the keys of the
+ * soft keyboard, text typed in one go, selection updates, the start and end
+ * of input, and the keys of a hard keyboard.
+ *
+ * <p>Each event is a type byte followed by the milliseconds since the event
+ * before it and the event's arguments, all as variable length integers; most
+ * events take three to five bytes.  The trace is kept in memory up to a fixed
+ * size, after which further events are dropped and the trace is marked full.
+ *
+ * <p>A trace is recorded on one thread at a time.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyTrace {
+
+  /** A key of the soft keyboard. */
+  public static final int KEY = 0;
+  /** Text typed in one go, as by a key with a text label. */
+  public static final int TEXT = 1;
+  /** The editor reporting a change of the selection. */
+  public static final int SELECTION = 2;
+  /** The start of input into an editor. */
+  public static final int START_INPUT = 3;
+  /** The end of input into an editor. */
+  public static final int FINISH_INPUT = 4;
+  /** A key of the hard keyboard being pressed. */
+  public static final int KEY_DOWN = 5;
+  /** A key of the hard keyboard being released. */
+  public static final int KEY_UP = 6;
+
+  /** The names of the event types, indexed by type. */
+  public static final String[] NAMES = {
+      "key", "text", "selection", "start", "finish", "keydown", "keyup",
+  };
+
+  static final int MAGIC = 0x4b545231; // "KTR1"
+  static final int VERSION = 1;
+
+  /** A capacity which holds some tens of thousands of events. */
+  public static final int DEFAULT_CAPACITY = 256 * 1024;
+
+  /**
+   * The most bytes an event takes, other than by its text or key codes: the
+   * type, and up to seven integers of five bytes.
+   */
+  private static final int MAX_EVENT_SIZE = 1 + 7 * 5;
+
+  /**
+   * Receives the events of a trace as it is played back.  The key codes and
+   * text passed are reused from one event to the next, so a listener which
+   * keeps them must copy them.
+   */
+  public interface Listener {
+    void onKey(int primaryCode, int[] keyCodes);
+    void onText(CharSequence text);
+    void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+        int candidatesStart, int candidatesEnd);
+    void onStartInput(int inputType, int imeOptions, int initialSelStart,
+        int initialSelEnd, boolean restarting);
+    void onFinishInput();
+    void onKeyDown(int keyCode, int metaState, int repeatCount);
+    void onKeyUp(int keyCode, int metaState);
+  }
+
+  private final int capacity;
+  private byte[] data = new byte[1024];
+  private int length;
+  private int eventCount;
+  private long duration;
+  private long lastTime = -1;
+  private boolean full;
+
+  /** Where the event being recorded starts, and when it happened. */
+  private int eventStart;
+  private long eventTime;
+
+  // Decoding state for play(), with the key codes by length and the text.
+  private int position;
+  private long playTime;
+  private int[][] keyCodeArrays = new int[4][];
+  private final StringBuilder text = new StringBuilder();
+
+  public KeyTrace(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public void recordKey(int primaryCode, int[] keyCodes) {
+    if (begin(KEY)) {
+      writeSigned(primaryCode);
+      if (keyCodes == null) {
+        writeUnsigned(0);
+      } else {
+        writeUnsigned(keyCodes.length + 1);
+        for (int code : keyCodes) {
+          writeSigned(code);
+        }
+      }
+      end();
+    }
+  }
+
+  public void recordText(CharSequence text) {
+    if (begin(TEXT)) {
+      writeUnsigned(text.length());
+      for (int i = 0; i < text.length(); i++) {
+        writeUnsigned(text.charAt(i));
+      }
+      end();
+    }
+  }
+
+  public void recordSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+      int candidatesStart, int candidatesEnd) {
+    if (begin(SELECTION)) {
+      // Positions are written relative to the new selection start, which
+      // keeps them small.
+      writeSigned(newSelStart);
+      writeSigned(oldSelStart - newSelStart);
+      writeSigned(oldSelEnd - newSelStart);
+      writeSigned(newSelEnd - newSelStart);
+      writeSigned(candidatesStart < 0 ? Integer.MIN_VALUE : candidatesStart - newSelStart);
+      writeSigned(candidatesEnd < 0 ? Integer.MIN_VALUE : candidatesEnd - newSelStart);
+      end();
+    }
+  }
+
+  public void recordStartInput(int inputType, int imeOptions, int initialSelStart,
+      int initialSelEnd, boolean restarting) {
+    if (begin(START_INPUT)) {
+      writeUnsigned(inputType);
+      writeUnsigned(imeOptions);
+      writeSigned(initialSelStart);
+      writeSigned(initialSelEnd);
+      writeUnsigned(restarting ? 1 : 0);
+      end();
+    }
+  }
+
+  public void recordFinishInput() {
+    if (begin(FINISH_INPUT)) {
+      end();
+    }
+  }
+
+  public void recordKeyDown(int keyCode, int metaState, int repeatCount) {
+    if (begin(KEY_DOWN)) {
+      writeUnsigned(keyCode);
+      writeUnsigned(metaState);
+      writeUnsigned(repeatCount);
+      end();
+    }
+  }
+
+  public void recordKeyUp(int keyCode, int metaState) {
+    if (begin(KEY_UP)) {
+      writeUnsigned(keyCode);
+      writeUnsigned(metaState);
+      end();
+    }
+  }
+
+  /** The number of events recorded. */
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  /** The size of the recorded events, in bytes. */
+  public int getLength() {
+    return length;
+  }
+
+  /** The time from the first event recorded to the last, in milliseconds. */
+  public long getDuration() {
+    return duration;
+  }
+
+  /** Whether events have been dropped for lack of room. */
+  public boolean isFull() {
+    return full;
+  }
+
+  /** Forgets the events recorded. */
+  public void clear() {
+    length = 0;
+    eventCount = 0;
+    duration = 0;
+    lastTime = -1;
+    full = false;
+  }
+
+  /**
+   * Passes the recorded events to {@code listener}, in order.  The events
+   * are played back at once, with no regard for the time between them; a
+   * listener which keeps its own clock finds the time of each event in
+   * {@link #getPlayTime}.
+   */
+  public void play(Listener listener) {
+    position = 0;
+    playTime = 0;
+    while (position < length) {
+      final int type = data[position++];
+      playTime += readUnsigned();
+      switch (type) {
+      case KEY:
+        final int primaryCode = readSigned();
+        final int codeCount = readUnsigned();
+        int[] keyCodes = null;
+        if (codeCount > 0) {
+          keyCodes = keyCodeArray(codeCount - 1);
+          for (int i = 0; i < keyCodes.length; i++) {
+            keyCodes[i] = readSigned();
+          }
+        }
+        listener.onKey(primaryCode, keyCodes);
+        break;
+      case TEXT:
+        text.setLength(0);
+        for (int i = readUnsigned(); i > 0; i--) {
+          text.append((char) readUnsigned());
+        }
+        listener.onText(text);
+        break;
+      case SELECTION:
+        final int newSelStart = readSigned();
+        final int oldSelStart = newSelStart + readSigned();
+        final int oldSelEnd = newSelStart + readSigned();
+        final int newSelEnd = newSelStart + readSigned();
+        final int candidatesStart = readPosition(newSelStart);
+        final int candidatesEnd = readPosition(newSelStart);
+        listener.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
+            candidatesStart, candidatesEnd);
+        break;
+      case START_INPUT:
+        final int inputType = readUnsigned();
+        final int imeOptions = readUnsigned();
+        final int initialSelStart = readSigned();
+        final int initialSelEnd = readSigned();
+        listener.onStartInput(inputType, imeOptions, initialSelStart, initialSelEnd,
+            readUnsigned() != 0);
+        break;
+      case FINISH_INPUT:
+        listener.onFinishInput();
+        break;
+      case KEY_DOWN:
+        final int keyCode = readUnsigned();
+        final int metaState = readUnsigned();
+        listener.onKeyDown(keyCode, metaState, readUnsigned());
+        break;
+      case KEY_UP:
+        final int releasedCode = readUnsigned();
+        listener.onKeyUp(releasedCode, readUnsigned());
+        break;
+      default:
+        throw new IllegalStateException("Unknown event type " + type + " at " + (position - 1));
+      }
+    }
+  }
+
+  /**
+   * The time of the event being played, in milliseconds since the first
+   * event of the trace.
+   */
+  public long getPlayTime() {
+    return playTime;
+  }
+
+  /** Writes the trace, in a form which {@link #read} reads back. */
+  public void write(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(eventCount);
+    out.writeLong(duration);
+    out.writeInt(length);
+    out.write(data, 0, length);
+    out.flush();
+  }
+
+  /** Reads a trace written by {@link #write}. */
+  public static KeyTrace read(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a key trace");
+    }
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported key trace version: " + version);
+    }
+    final int eventCount = in.readInt();
+    final long duration = in.readLong();
+    final int length = in.readInt();
+    KeyTrace trace = new KeyTrace(length);
+    trace.data = new byte[length];
+    in.readFully(trace.data);
+    trace.length = length;
+    trace.eventCount = eventCount;
+    trace.duration = duration;
+    return trace;
+  }
+
+  /**
+   * Starts an event of {@code type}, unless there is no room left for it.
+   *
+   * @return whether to record the event
+   */
+  private boolean begin(int type) {
+    if (full) {
+      return false;
+    }
+    if (length + MAX_EVENT_SIZE > capacity) {
+      full = true;
+      return false;
+    }
+    final long now = now();
+    final long elapsed = lastTime < 0 ? 0 : now - lastTime;
+    eventStart = length;
+    eventTime = now;
+    writeByte(type);
+    writeUnsigned((int) Math.min(elapsed, Integer.MAX_VALUE));
+    return true;
+  }
+
+  /**
+   * The time in milliseconds at which an event is recorded.  Overridden to
+   * record a trace against a clock other than the real one.
+   */
+  protected long now() {
+    return System.nanoTime() / 1000000;
+  }
+
+  /** Ends an event, dropping it if its text or key codes did not fit. */
+  private void end() {
+    if (length > capacity) {
+      full = true;
+      length = eventStart;
+      return;
+    }
+    if (lastTime >= 0) {
+      duration += eventTime - lastTime;
+    }
+    lastTime = eventTime;
+    eventCount++;
+  }
+
+  private void writeByte(int b) {
+    if (length == data.length) {
+      byte[] grown = new byte[Math.max(data.length * 2, 16)];
+      System.arraycopy(data, 0, grown, 0, length);
+      data = grown;
+    }
+    data[length++] = (byte) b;
+  }
+
+  private void writeUnsigned(int value) {
+    while ((value & ~0x7f) != 0) {
+      writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    writeByte(value);
+  }
+
+  private void writeSigned(int value) {
+    writeUnsigned((value << 1) ^ (value >> 31));
+  }
+
+  private int[] keyCodeArray(int length) {
+    if (length >= keyCodeArrays.length) {
+      int[][] grown = new int[length + 1][];
+      System.arraycopy(keyCodeArrays, 0, grown, 0, keyCodeArrays.length);
+      keyCodeArrays = grown;
+    }
+    if (keyCodeArrays[length] == null) {
+      keyCodeArrays[length] = new int[length];
+    }
+    return keyCodeArrays[length];
+  }
+
+  private int readUnsigned() {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      final int b = data[position++];
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private int readSigned() {
+    final int value = readUnsigned();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private int readPosition(int base) {
+    final int offset = readSigned();
+    return offset == Integer.MIN_VALUE ? -1 : base + offset;
+  }
+}
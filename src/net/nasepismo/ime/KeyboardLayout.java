@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A keyboard layout as compiled from its XML resource by the
+ * {@code KeyboardCompiler} of the benchmarks module, so that it can be loaded
+ * without parsing XML.
+ *
+ * <p>The layout keeps the geometry as it was written, in fractions of the
+ * display width, pixels, dips or dimension resources, since it can only be
+ * resolved against the display at hand.  The binary form is a stream of
+ * big-endian values in the order of the fields below, starting with the magic
+ * number and the format version; strings are written as by
+ * {@link DataOutputStream#writeUTF}.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyboardLayout {
+
+  static final int MAGIC = 0x53524b31; // "SRK1"
+  static final int VERSION = 1;
+
+  /** A length, in one of the units a layout may use. */
+  public static class Dimension {
+    /** Not given; the default from the enclosing element applies. */
+    public static final int NONE = 0;
+    public static final int PIXELS = 1;
+    public static final int DIP = 2;
+    /** A fraction of the display width, like {@code 10%p}. */
+    public static final int FRACTION = 3;
+    /** A dimension resource, named by {@link #resource}. */
+    public static final int RESOURCE = 4;
+
+    public static final Dimension UNSET = new Dimension(NONE, 0, null);
+
+    public final int type;
+    public final float value;
+    public final String resource;
+
+    public Dimension(int type, float value, String resource) {
+      this.type = type;
+      this.value = value;
+      this.resource = resource;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeByte(type);
+      if (type == RESOURCE) {
+        out.writeUTF(resource);
+      } else if (type != NONE) {
+        out.writeFloat(value);
+      }
+    }
+
+    static Dimension read(DataInputStream in) throws IOException {
+      final int type = in.readByte();
+      switch (type) {
+        case NONE:
+          return UNSET;
+        case PIXELS:
+        case DIP:
+        case FRACTION:
+          return new Dimension(type, in.readFloat(), null);
+        case RESOURCE:
+          return new Dimension(type, 0, in.readUTF());
+        default:
+          throw new IOException("Unknown dimension type: " + type);
+      }
+    }
+  }
+
+  public static class Key {
+    public int[] codes;
+    /** The label, or null if the key shows an icon. */
+    public String label;
+    /** The name of the icon's drawable resource, or null. */
+    public String icon;
+    public Dimension width = Dimension.UNSET;
+    public Dimension height = Dimension.UNSET;
+    public Dimension horizontalGap = Dimension.UNSET;
+    public int edgeFlags;
+    public boolean modifier;
+    public boolean sticky;
+    public boolean repeatable;
+  }
+
+  public static class Row {
+    public Dimension keyWidth = Dimension.UNSET;
+    public Dimension keyHeight = Dimension.UNSET;
+    public Dimension horizontalGap = Dimension.UNSET;
+    public Dimension verticalGap = Dimension.UNSET;
+    public int rowEdgeFlags;
+    public final List<Key> keys = new ArrayList<Key>();
+  }
+
+  public Dimension keyWidth = Dimension.UNSET;
+  public Dimension keyHeight = Dimension.UNSET;
+  public Dimension horizontalGap = Dimension.UNSET;
+  public Dimension verticalGap = Dimension.UNSET;
+  public final List<Row> rows = new ArrayList<Row>();
+
+  private static final int MODIFIER = 1;
+  private static final int STICKY = 2;
+  private static final int REPEATABLE = 4;
+
+  public void write(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    keyWidth.write(out);
+    keyHeight.write(out);
+    horizontalGap.write(out);
+    verticalGap.write(out);
+    out.writeShort(rows.size());
+    for (Row row : rows) {
+      row.keyWidth.write(out);
+      row.keyHeight.write(out);
+      row.horizontalGap.write(out);
+      row.verticalGap.write(out);
+      out.writeByte(row.rowEdgeFlags);
+      out.writeShort(row.keys.size());
+      for (Key key : row.keys) {
+        out.writeByte(key.codes.length);
+        for (int code : key.codes) {
+          out.writeInt(code);
+        }
+        out.writeUTF(key.label != null ? key.label : "");
+        out.writeUTF(key.icon != null ? key.icon : "");
+        key.width.write(out);
+        key.height.write(out);
+        key.horizontalGap.write(out);
+        out.writeByte(key.edgeFlags);
+        out.writeByte((key.modifier ? MODIFIER : 0) | (key.sticky ? STICKY : 0)
+            | (key.repeatable ? REPEATABLE : 0));
+      }
+    }
+    out.flush();
+  }
+
+  public static KeyboardLayout read(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a keyboard layout");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported keyboard layout version: " + version);
+    }
+    KeyboardLayout layout = new KeyboardLayout();
+    layout.keyWidth = Dimension.read(in);
+    layout.keyHeight = Dimension.read(in);
+    layout.horizontalGap = Dimension.read(in);
+    layout.verticalGap = Dimension.read(in);
+    final int rowCount = in.readUnsignedShort();
+    for (int r = 0; r < rowCount; r++) {
+      Row row = new Row();
+      row.keyWidth = Dimension.read(in);
+      row.keyHeight = Dimension.read(in);
+      row.horizontalGap = Dimension.read(in);
+      row.verticalGap = Dimension.read(in);
+      row.rowEdgeFlags = in.readByte();
+      final int keyCount = in.readUnsignedShort();
+      for (int k = 0; k < keyCount; k++) {
+        Key key = new Key();
+        key.codes = new int[in.readUnsignedByte()];
+        for (int i = 0; i < key.codes.length; i++) {
+          key.codes[i] = in.readInt();
+        }
+        String label = in.readUTF();
+        key.label = label.length() > 0 ? label : null;
+        String icon = in.readUTF();
+        key.icon = icon.length() > 0 ? icon : null;
+        key.width = Dimension.read(in);
+        key.height = Dimension.read(in);
+        key.horizontalGap = Dimension.read(in);
+        key.edgeFlags = in.readByte();
+        int flags = in.readByte();
+        key.modifier = (flags & MODIFIER) != 0;
+        key.sticky = (flags & STICKY) != 0;
+        key.repeatable = (flags & REPEATABLE) != 0;
+        row.keys.add(key);
+      }
+      layout.rows.add(row);
+    }
+    return layout;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard;
+import android.os.MessageQueue;
+
+/**
+ * The keyboards of the input method for one display width.
+ *
+ * <p>Parsing a layout is a large part of the start-up time, so only the
+ * alphabet keyboard, which is shown first, is built right away.  The symbol
+ * keyboards are built when they are first asked for, or earlier, one per
+ * idle pass, when the set is added as an idle handler to the main thread.
+ * Keyboards are laid out for the display width at the time they are built,
+ * so a set must only be used at its own width.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class KeyboardSet implements MessageQueue.IdleHandler {
+
+  static final String BASE_ASSET = "qwerty.kbd";
+  static final String SYMBOLS_ASSET = "symbols.kbd";
+  static final String SYMBOLS_SHIFTED_ASSET = "symbols_shift.kbd";
+
+  private final Context context;
+  private final SerbianKeyboard base;
+  private SerbianKeyboard symbols;
+  private SerbianKeyboard symbolsShifted;
+
+  public KeyboardSet(Context context) {
+    this.context = context;
+    base = SerbianKeyboard.create(context, BASE_ASSET, R.xml.qwerty);
+  }
+
+  public SerbianKeyboard getBase() {
+    return base;
+  }
+
+  public SerbianKeyboard getSymbols() {
+    if (symbols == null) {
+      symbols = SerbianKeyboard.create(context, SYMBOLS_ASSET, R.xml.symbols);
+    }
+    return symbols;
+  }
+
+  public SerbianKeyboard getSymbolsShifted() {
+    if (symbolsShifted == null) {
+      symbolsShifted =
+          SerbianKeyboard.create(context, SYMBOLS_SHIFTED_ASSET, R.xml.symbols_shift);
+    }
+    return symbolsShifted;
+  }
+
+  /** Whether {@code keyboard} is one of the symbol keyboards of this set. */
+  public boolean isSymbols(Keyboard keyboard) {
+    return keyboard != null && (keyboard == symbols || keyboard == symbolsShifted);
+  }
+
+  /** Whether all the keyboards have been built. */
+  public boolean isComplete() {
+    return symbols != null && symbolsShifted != null;
+  }
+
+  /** Builds one missing keyboard, and stays registered while any is left. */
+  public boolean queueIdle() {
+    if (symbols == null) {
+      getSymbols();
+    } else {
+      getSymbolsShifted();
+    }
+    return !isComplete();
+  }
+}
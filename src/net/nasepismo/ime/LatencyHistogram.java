@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Counts durations in a fixed set of buckets, for percentiles which are good
+ * to within a fraction of their value without keeping the samples.
+ *
+ * <p>Durations are kept in microseconds.  Below {@link #SUB_BUCKETS} they get
+ * a bucket each; above, each power of two is split into {@link #SUB_BUCKETS}
+ * buckets of equal width, so that a bucket is never wider than a quarter of
+ * the values in it.  Durations past the last bucket are counted in it.
+ * Recording takes a few shifts and never allocates.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class LatencyHistogram {
+
+  static final int SUB_BUCKETS = 4;
+
+  /** The powers of two covered, up to about 16 seconds. */
+  private static final int OCTAVES = 24;
+
+  static final int BUCKET_COUNT = OCTAVES * SUB_BUCKETS;
+
+  private final int[] counts = new int[BUCKET_COUNT];
+  private long count;
+  private long total;
+  private long max;
+
+  /** Records a duration, given in nanoseconds. */
+  public synchronized void record(long nanos) {
+    final long micros = Math.max(0, nanos / 1000);
+    counts[bucketOf(micros)]++;
+    count++;
+    total += micros;
+    max = Math.max(max, micros);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /** The longest duration recorded, in microseconds. */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /** The mean duration, in microseconds. */
+  public synchronized long getMean() {
+    return count == 0 ? 0 : total / count;
+  }
+
+  /**
+   * The duration which {@code percent} percent of those recorded do not
+   * exceed, in microseconds, rounded up to the end of its bucket.
+   */
+  public synchronized long getPercentile(int percent) {
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (count * percent + 99) / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, lowerBound(i + 1) - 1);
+      }
+    }
+    return max;
+  }
+
+  public synchronized void clear() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    total = 0;
+    max = 0;
+  }
+
+  static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    final int octave = 63 - Long.numberOfLeadingZeros(micros);
+    final int sub = (int) (micros >>> (octave - 2)) & (SUB_BUCKETS - 1);
+    return Math.min(BUCKET_COUNT - 1, (octave - 1) * SUB_BUCKETS + sub);
+  }
+
+  /** The shortest duration, in microseconds, which falls into {@code bucket}. */
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int octave = bucket / SUB_BUCKETS + 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (octave - 2);
+  }
+}
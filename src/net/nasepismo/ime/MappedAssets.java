@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+
+/**
+ * Memory-maps read-only data files shipped in the package assets.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+class MappedAssets {
+
+  private MappedAssets() {}
+
+  /**
+   * Maps the named asset.  Assets stored uncompressed in the package are
+   * mapped in place.  Compressed ones can not be, so they are copied once
+   * into the application's files directory and mapped from there.  The copy
+   * is named after the package it came from, so that an update of the
+   * package copies the asset anew instead of mapping the old one.  The copy
+   * of an asset of several megabytes takes a while, so this is not to be
+   * called on the main thread.
+   */
+  static ByteBuffer map(Context context, String assetName) throws IOException {
+    AssetFileDescriptor descriptor = null;
+    try {
+      descriptor = context.getAssets().openFd(assetName);
+    } catch (IOException e) {
+      // The asset is compressed; fall through to the copy.
+    }
+    if (descriptor != null) {
+      FileInputStream in = descriptor.createInputStream();
+      try {
+        return in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+            descriptor.getStartOffset(), descriptor.getLength());
+      } finally {
+        in.close();
+        descriptor.close();
+      }
+    }
+
+    final String name = assetName + "." + getPackageStamp(context);
+    File file = new File(context.getFilesDir(), name);
+    if (!file.exists()) {
+      copy(context.getAssets().open(assetName), file);
+      deleteOtherCopies(context.getFilesDir(), assetName, name);
+    }
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A name for the installed package, which changes whenever it is updated:
+   * its version code, and the time its file was written, for builds which
+   * keep the same version code.
+   */
+  private static String getPackageStamp(Context context) {
+    int versionCode = 0;
+    try {
+      versionCode = context.getPackageManager()
+          .getPackageInfo(context.getPackageName(), 0).versionCode;
+    } catch (PackageManager.NameNotFoundException e) {
+      // Can not happen for our own package; the file time still tells.
+    }
+    final long modified = new File(context.getPackageCodePath()).lastModified();
+    return versionCode + "-" + Long.toHexString(modified);
+  }
+
+  /**
+   * Deletes the copies of an asset made from earlier packages, including the
+   * one which older versions kept under the plain asset name.
+   */
+  private static void deleteOtherCopies(File directory, String assetName, String keep) {
+    final String prefix = assetName + ".";
+    String[] names = directory.list();
+    if (names == null) {
+      return;
+    }
+    for (String name : names) {
+      if ((name.equals(assetName) || name.startsWith(prefix)) && !name.equals(keep)) {
+        new File(directory, name).delete();
+      }
+    }
+  }
+
+  private static void copy(InputStream in, File target) throws IOException {
+    File temp = new File(target.getPath() + ".tmp");
+    OutputStream out = new FileOutputStream(temp);
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      out.close();
+      in.close();
+    }
+    if (!temp.renameTo(target)) {
+      throw new IOException("Could not create " + target);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Predicts the next word from the one or two words before it, using bigram and
+ * trigram counts stored in a memory-mapped file.
+ *
+ * <p>Words are identified by their node in a {@link BinaryDictionary}, and the
+ * model only makes sense together with the dictionary it was built for.  The
+ * file starts with a header of five big-endian ints: the magic number, the
+ * format version, the node count of the dictionary, the number of hash
+ * buckets (a power of two) and the number of successors.  It is followed by
+ * the buckets, an open-addressed hash table of contexts with linear probing,
+ * as records of {@link #BUCKET_SIZE} bytes:
+ *
+ * <pre>
+ *   0  int   the word before the last one, or -1 for a bigram context
+ *   4  int   the last word, or -1 if the bucket is empty
+ *   8  int   index of the first successor
+ *  12  int   number of successors
+ * </pre>
+ *
+ * and then by the successors, as ints holding the word (upper 24 bits) and
+ * its quantized log-probability in the context (lower 8 bits).  The
+ * successors of a context are sorted best first and capped when the file is
+ * built, so a prediction reads a fixed number of records however large the
+ * model is.
+ *
+ * <p>The header is checked against the size of the file when it is wrapped.
+ * The buckets are checked as they are read, so that wrapping does not have to
+ * read the whole table: a probe stops after looking at every bucket once, and
+ * a context whose successors lie outside of the file, or name words the
+ * dictionary does not have, is taken as missing.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class NgramModel {
+
+  static final int MAGIC = 0x53524e31; // "SRN1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 20;
+  static final int BUCKET_SIZE = 16;
+
+  /** Stands for a missing word in a context. */
+  public static final int NO_WORD = -1;
+
+  /** Added to trigram scores, so that they rank above any bigram. */
+  private static final int TRIGRAM_BONUS = 256;
+
+  private final ByteBuffer buffer;
+  private final int bucketCount;
+  private final int bucketMask;
+  private final int successorsOffset;
+  private final int successorCount;
+  private final int wordCount;
+
+  private NgramModel(ByteBuffer buffer, int bucketCount, int successorCount, int wordCount) {
+    this.buffer = buffer;
+    this.bucketCount = bucketCount;
+    this.bucketMask = bucketCount - 1;
+    this.successorsOffset = HEADER_SIZE + bucketCount * BUCKET_SIZE;
+    this.successorCount = successorCount;
+    this.wordCount = wordCount;
+  }
+
+  /**
+   * Wraps an already mapped buffer holding a model built for
+   * {@code dictionary}.
+   */
+  public static NgramModel wrap(ByteBuffer buffer, BinaryDictionary dictionary)
+      throws IOException {
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an n-gram file");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported n-gram version: " + buffer.getInt(4));
+    }
+    if (buffer.getInt(8) != dictionary.getNodeCount()) {
+      throw new IOException("The n-grams were built for another dictionary");
+    }
+    int bucketCount = buffer.getInt(12);
+    int successorCount = buffer.getInt(16);
+    if (bucketCount < 1 || (bucketCount & (bucketCount - 1)) != 0 || successorCount < 0) {
+      throw new IOException("Corrupt n-gram header");
+    }
+    if (HEADER_SIZE + (long) bucketCount * BUCKET_SIZE + (long) successorCount * 4
+        > buffer.capacity()) {
+      throw new IOException("Truncated n-gram file");
+    }
+    return new NgramModel(buffer, bucketCount, successorCount, dictionary.getNodeCount());
+  }
+
+  static int hash(int previous, int last) {
+    int key = previous * 0x9E3779B9 + last;
+    key *= 0x9E3779B9;
+    return key ^ (key >>> 16);
+  }
+
+  /**
+   * Finds the context of the words {@code previous last}, where
+   * {@code previous} is {@link #NO_WORD} for a bigram context.
+   *
+   * @return the context's bucket, or {@link BinaryDictionary#NOT_FOUND} if
+   *     it is missing or its successors lie outside of the file
+   */
+  public int findContext(int previous, int last) {
+    int bucket = hash(previous, last) & bucketMask;
+    for (int probes = 0; probes < bucketCount; probes++) {
+      final int offset = HEADER_SIZE + bucket * BUCKET_SIZE;
+      final int bucketLast = buffer.getInt(offset + 4);
+      if (bucketLast == NO_WORD) {
+        return BinaryDictionary.NOT_FOUND;
+      }
+      if (bucketLast == last && buffer.getInt(offset) == previous) {
+        return hasValidSuccessors(offset) ? bucket : BinaryDictionary.NOT_FOUND;
+      }
+      bucket = (bucket + 1) & bucketMask;
+    }
+    // A table without an empty bucket; only a corrupt file has one.
+    return BinaryDictionary.NOT_FOUND;
+  }
+
+  private boolean hasValidSuccessors(int offset) {
+    final int first = buffer.getInt(offset + 8);
+    final int count = buffer.getInt(offset + 12);
+    return first >= 0 && count >= 0 && (long) first + count <= successorCount;
+  }
+
+  public int getSuccessorCount(int context) {
+    return buffer.getInt(HEADER_SIZE + context * BUCKET_SIZE + 12);
+  }
+
+  /** The {@code i}-th most likely word to follow the context. */
+  public int getSuccessor(int context, int i) {
+    return successor(context, i) >>> 8;
+  }
+
+  /** The quantized log-probability of the {@code i}-th successor, 1 to 255. */
+  public int getScore(int context, int i) {
+    return successor(context, i) & 0xff;
+  }
+
+  private int successor(int context, int i) {
+    int first = buffer.getInt(HEADER_SIZE + context * BUCKET_SIZE + 8);
+    return buffer.getInt(successorsOffset + (first + i) * 4);
+  }
+
+  /**
+   * Offers the likely words to follow {@code previous last} to {@code out}.
+   * The trigram predictions come first, followed by the bigram predictions
+   * for {@code last} alone which are not among them yet.
+   */
+  public void predict(int previous, int last, Suggestions out) {
+    if (previous != NO_WORD) {
+      offerSuccessors(findContext(previous, last), TRIGRAM_BONUS, out);
+    }
+    offerSuccessors(findContext(NO_WORD, last), 0, out);
+  }
+
+  private void offerSuccessors(int context, int bonus, Suggestions out) {
+    if (context == BinaryDictionary.NOT_FOUND) {
+      return;
+    }
+    final int count = getSuccessorCount(context);
+    for (int i = 0; i < count; i++) {
+      final int score = getScore(context, i) + bonus;
+      if (score <= out.getThreshold()) {
+        // Successors are sorted, so none of the rest can make it either.
+        return;
+      }
+      final int word = getSuccessor(context, i);
+      if (word < wordCount && !out.containsId(word)) {
+        out.offer(word, score);
+      }
+    }
+  }
+}
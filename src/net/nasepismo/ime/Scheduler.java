@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * The clock and the message queue of a thread, for work which the key
+ * handling puts off: to the end of a frame, or to another thread.  On the
+ * device this is a Handler; off it, a queue which is run by hand, so that
+ * time can pass as fast as a replay needs.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public interface Scheduler {
+
+  /** The time in milliseconds, as android.os.SystemClock.uptimeMillis. */
+  long uptimeMillis();
+
+  /** Runs {@code task} on the thread, after what is already queued. */
+  void post(Runnable task);
+
+  /** Runs {@code task} on the thread at {@link #uptimeMillis} {@code time}. */
+  void postAtTime(Runnable task, long time);
+
+  /** Drops {@code task} wherever it is queued. */
+  void removeCallbacks(Runnable task);
+}
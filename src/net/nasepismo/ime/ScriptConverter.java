@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Converts the text of an editor between Serbian Cyrillic and Latin, in place.
+ *
+ * <p>The text is read a chunk at a time after the cursor, converted into a
+ * reused buffer, and written back over the chunk, so neither side ever holds
+ * more than a chunk of a long text.  Chunks which need no conversion are only
+ * skipped over.  The whole conversion is a single batch edit.
+ *
+ * <p>The direction follows the script of the first letters converted: text
+ * which is mostly Cyrillic is converted to Latin, and anything else to
+ * Cyrillic.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class ScriptConverter {
+
+  /** How many characters are read from the editor at a time. */
+  static final int CHUNK_SIZE = 4096;
+
+  private static final int UNDECIDED = 0;
+  private static final int TO_CYRILLIC = 1;
+  private static final int TO_LATIN = 2;
+
+  private final StringBuilder output = new StringBuilder(CHUNK_SIZE * 2);
+  private int direction;
+  private int chunkCount;
+
+  /**
+   * Converts the selected text, or all of the text if nothing is selected.
+   * Afterwards the converted selection is selected again; otherwise the
+   * cursor is put back where it was.
+   *
+   * @param selectionStart the start of the selection, or -1 if not known
+   * @param selectionEnd the end of the selection, or -1 if not known
+   */
+  public void convert(InputConnection ic, int selectionStart, int selectionEnd) {
+    final int start = Math.min(selectionStart, selectionEnd);
+    final int end = Math.max(selectionStart, selectionEnd);
+    direction = UNDECIDED;
+    chunkCount = 0;
+    ic.beginBatchEdit();
+    try {
+      if (start >= 0 && start < end) {
+        ic.setSelection(start, start);
+        int length = convertRun(ic, start, end - start);
+        ic.setSelection(start, start + length);
+      } else {
+        // Convert the text before and after the cursor separately, to find
+        // where the cursor ends up.
+        final int cursor = Math.max(end, 0);
+        ic.setSelection(0, 0);
+        int before = convertRun(ic, 0, cursor);
+        convertRun(ic, before, Integer.MAX_VALUE);
+        ic.setSelection(before, before);
+      }
+    } finally {
+      ic.endBatchEdit();
+    }
+  }
+
+  /** The number of chunks read by the last conversion. */
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
+  /**
+   * Converts up to {@code limit} characters after the cursor, which is at
+   * {@code position}, and leaves the cursor after the converted text.
+   *
+   * @return the length of the converted text
+   */
+  private int convertRun(InputConnection ic, int position, int limit) {
+    int written = 0;
+    while (limit > 0) {
+      final int request = Math.min(CHUNK_SIZE, limit);
+      CharSequence chunk = ic.getTextAfterCursor(request, 0);
+      if (chunk == null || chunk.length() == 0) {
+        break;
+      }
+      chunkCount++;
+      final int length = Math.min(chunk.length(), request);
+      final boolean endOfInput = length < request || length == limit;
+      if (direction == UNDECIDED) {
+        direction = detectDirection(chunk, length);
+      }
+
+      output.setLength(0);
+      final int consumed = direction == TO_LATIN
+          ? Transliterator.toLatin(chunk, 0, length, endOfInput, output)
+          : Transliterator.toCyrillic(chunk, 0, length, endOfInput, output);
+      if (consumed == 0) {
+        break;
+      }
+      if (isUnchanged(chunk, consumed)) {
+        ic.setSelection(position + consumed, position + consumed);
+      } else {
+        ic.deleteSurroundingText(0, consumed);
+        ic.commitText(output, 1);
+      }
+      position += output.length();
+      written += output.length();
+      limit -= consumed;
+    }
+    return written;
+  }
+
+  private boolean isUnchanged(CharSequence chunk, int length) {
+    if (output.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (output.charAt(i) != chunk.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int detectDirection(CharSequence text, int length) {
+    int cyrillic = 0;
+    int latin = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (Transliterator.isCyrillic(c)) {
+        cyrillic++;
+      } else if (Character.isLetter(c)) {
+        latin++;
+      }
+    }
+    if (cyrillic == 0 && latin == 0) {
+      return UNDECIDED;
+    }
+    return cyrillic > latin ? TO_LATIN : TO_CYRILLIC;
+  }
+}
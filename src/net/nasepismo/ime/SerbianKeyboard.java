@@ -16,25 +16,269 @@
 
 package net.nasepismo.ime;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
+import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.inputmethod.EditorInfo;
 
 /**
  * The Serbian keyboard.
  *
+ * <p>It is built either from an XML layout, or much faster from a
+ * {@link KeyboardLayout} compiled ahead of time.  In the latter case the keys
+ * are created here rather than by the platform, which is why this keeps its
+ * own shift key and size.
+ *
  * @author filmil@gmail.com (Filip Miletic)
  */
 public class SerbianKeyboard extends Keyboard {
 
+  private static final String TAG = "SerbianKeyboard";
+
+  /** How far from a touch keys count as near it, in default key widths. */
+  private static final float PROXIMITY = 1.4f;
+
+  /**
+   * How far the centre of a key may be from the touch area of another for
+   * them to be neighbours, in default key widths.
+   */
+  private static final float ADJACENCY = 1.0f;
+
   private Keyboard.Key enterKey;
 
+  // Only set for compiled layouts.
+  private boolean compiled;
+  private Keyboard.Key shiftKey;
+  private int shiftKeyIndex = -1;
+  private int totalWidth;
+  private int totalHeight;
+
+  private KeyGrid keyGrid;
+  private KeyAdjacency keyAdjacency;
+
   public SerbianKeyboard(Context context, int layoutResId) {
     super(context, layoutResId);
   }
 
+  /**
+   * Builds the keyboard from a compiled layout, placing the keys the way the
+   * platform does for XML layouts.
+   *
+   * @throws IOException if the layout names a resource that does not exist
+   */
+  public SerbianKeyboard(Context context, KeyboardLayout layout) throws IOException {
+    super(context, R.xml.keyboard_template);
+    final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+    final int displayWidth = metrics.widthPixels;
+    final int displayHeight = metrics.heightPixels;
+    final int defaultWidth = resolve(context, layout.keyWidth, displayWidth, displayWidth / 10);
+    final int defaultHeight = resolve(context, layout.keyHeight, displayHeight, defaultWidth);
+    final int defaultGap = resolve(context, layout.horizontalGap, displayWidth, 0);
+    final int defaultVerticalGap = resolve(context, layout.verticalGap, displayHeight, 0);
+
+    final List<Keyboard.Key> keys = getKeys();
+    final List<Keyboard.Key> modifierKeys = getModifierKeys();
+    int y = 0;
+    for (KeyboardLayout.Row rowLayout : layout.rows) {
+      Row row = new Row(this);
+      row.defaultWidth = resolve(context, rowLayout.keyWidth, displayWidth, defaultWidth);
+      row.defaultHeight = resolve(context, rowLayout.keyHeight, displayHeight, defaultHeight);
+      row.defaultHorizontalGap =
+          resolve(context, rowLayout.horizontalGap, displayWidth, defaultGap);
+      row.verticalGap = resolve(context, rowLayout.verticalGap, displayHeight, defaultVerticalGap);
+      row.rowEdgeFlags = rowLayout.rowEdgeFlags;
+
+      int x = 0;
+      for (KeyboardLayout.Key keyLayout : rowLayout.keys) {
+        Key key = new Key(row);
+        key.codes = keyLayout.codes;
+        key.label = keyLayout.label;
+        if (keyLayout.icon != null) {
+          key.icon = getDrawable(context, keyLayout.icon);
+          key.icon.setBounds(0, 0, key.icon.getIntrinsicWidth(), key.icon.getIntrinsicHeight());
+        }
+        key.width = resolve(context, keyLayout.width, displayWidth, row.defaultWidth);
+        key.height = resolve(context, keyLayout.height, displayHeight, row.defaultHeight);
+        key.gap = resolve(context, keyLayout.horizontalGap, displayWidth, row.defaultHorizontalGap);
+        key.x = x + key.gap;
+        key.y = y;
+        key.edgeFlags = keyLayout.edgeFlags | row.rowEdgeFlags;
+        key.modifier = keyLayout.modifier;
+        key.sticky = keyLayout.sticky;
+        key.repeatable = keyLayout.repeatable;
+        keys.add(key);
+        if (key.codes[0] == KEYCODE_SHIFT) {
+          shiftKey = key;
+          shiftKeyIndex = keys.size() - 1;
+          modifierKeys.add(key);
+        } else if (key.codes[0] == KEYCODE_ALT) {
+          modifierKeys.add(key);
+        } else if (key.codes[0] == 10) {
+          enterKey = key;
+        }
+        x += key.gap + key.width;
+        totalWidth = Math.max(totalWidth, x);
+      }
+      y += row.verticalGap + row.defaultHeight;
+    }
+    totalHeight = y - defaultVerticalGap;
+    compiled = true;
+  }
+
+  /**
+   * Builds the keyboard from the compiled layout in the assets, or from the
+   * XML layout if there is no usable compiled one.
+   */
+  static SerbianKeyboard create(Context context, String assetName, int layoutResId) {
+    try {
+      InputStream in = context.getAssets().open(assetName);
+      try {
+        return new SerbianKeyboard(context, KeyboardLayout.read(in));
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Falling back to the XML layout for " + assetName, e);
+      return new SerbianKeyboard(context, layoutResId);
+    }
+  }
+
+  private static int resolve(
+      Context context, KeyboardLayout.Dimension dimension, int base, int defaultValue)
+      throws IOException {
+    switch (dimension.type) {
+      case KeyboardLayout.Dimension.PIXELS:
+        return (int) dimension.value;
+      case KeyboardLayout.Dimension.DIP:
+        return (int) (dimension.value * context.getResources().getDisplayMetrics().density);
+      case KeyboardLayout.Dimension.FRACTION:
+        return Math.round(dimension.value * base);
+      case KeyboardLayout.Dimension.RESOURCE:
+        Resources res = context.getResources();
+        return res.getDimensionPixelOffset(
+            getIdentifier(context, dimension.resource, "dimen"));
+      default:
+        return defaultValue;
+    }
+  }
+
+  private static Drawable getDrawable(Context context, String name) throws IOException {
+    return context.getResources().getDrawable(getIdentifier(context, name, "drawable"));
+  }
+
+  private static int getIdentifier(Context context, String name, String type)
+      throws IOException {
+    int id = context.getResources().getIdentifier(name, type, context.getPackageName());
+    if (id == 0) {
+      throw new IOException("No such resource: @" + type + "/" + name);
+    }
+    return id;
+  }
+
+  /**
+   * The spatial index of the keys' touch areas.  It is built on first use;
+   * the keys never move afterwards, since a keyboard is only used at the
+   * width it was built for.
+   */
+  public KeyGrid getKeyGrid() {
+    if (keyGrid == null) {
+      final List<Keyboard.Key> keys = getKeys();
+      final int count = keys.size();
+      int[] left = new int[count];
+      int[] top = new int[count];
+      int[] right = new int[count];
+      int[] bottom = new int[count];
+      for (int i = 0; i < count; i++) {
+        Keyboard.Key key = keys.get(i);
+        // The same areas as Key.isInside, which extends edge keys outwards.
+        left[i] = (key.edgeFlags & EDGE_LEFT) != 0 ? -KeyGrid.OPEN : key.x;
+        top[i] = (key.edgeFlags & EDGE_TOP) != 0 ? -KeyGrid.OPEN : key.y;
+        right[i] = (key.edgeFlags & EDGE_RIGHT) != 0 ? KeyGrid.OPEN : key.x + key.width;
+        bottom[i] = (key.edgeFlags & EDGE_BOTTOM) != 0 ? KeyGrid.OPEN : key.y + key.height;
+        if (key.codes[0] == KEYCODE_CANCEL) {
+          if (top[i] != -KeyGrid.OPEN) {
+            top[i] += Key.CANCEL_KEY_OFFSET;
+          }
+          if (bottom[i] != KeyGrid.OPEN) {
+            bottom[i] += Key.CANCEL_KEY_OFFSET;
+          }
+        }
+      }
+      keyGrid = new KeyGrid(getMinWidth(), getHeight(), left, top, right, bottom,
+          (int) (getKeyWidth() * PROXIMITY));
+    }
+    return keyGrid;
+  }
+
+  /** Which of the letters on this keyboard are on neighbouring keys. */
+  public KeyAdjacency getKeyAdjacency() {
+    if (keyAdjacency == null) {
+      final List<Keyboard.Key> keys = getKeys();
+      StringBuilder letters = new StringBuilder();
+      for (Keyboard.Key key : keys) {
+        if (Character.isLetter(key.codes[0])) {
+          letters.append((char) key.codes[0]);
+        }
+      }
+      KeyAdjacency adjacency = new KeyAdjacency(letters);
+      final KeyGrid grid = getKeyGrid();
+      final int reach = (int) (getKeyWidth() * ADJACENCY);
+      for (int i = 0; i < keys.size(); i++) {
+        Keyboard.Key key = keys.get(i);
+        if (!Character.isLetter(key.codes[0])) {
+          continue;
+        }
+        final int x = key.x + key.width / 2;
+        final int y = key.y + key.height / 2;
+        for (int other : grid.getCandidates(x, y)) {
+          final int code = keys.get(other).codes[0];
+          if (other != i && Character.isLetter(code)
+              && grid.getSquaredDistance(other, x, y) <= reach * reach) {
+            adjacency.setAdjacent((char) key.codes[0], (char) code);
+          }
+        }
+      }
+      keyAdjacency = adjacency;
+    }
+    return keyAdjacency;
+  }
+
+  @Override
+  public int[] getNearestKeys(int x, int y) {
+    return getKeyGrid().getCandidates(x, y);
+  }
+
+  @Override
+  public int getHeight() {
+    return compiled ? totalHeight : super.getHeight();
+  }
+
+  @Override
+  public int getMinWidth() {
+    return compiled ? totalWidth : super.getMinWidth();
+  }
+
+  @Override
+  public boolean setShifted(boolean shiftState) {
+    if (shiftKey != null) {
+      shiftKey.on = shiftState;
+    }
+    return super.setShifted(shiftState);
+  }
+
+  @Override
+  public int getShiftKeyIndex() {
+    return shiftKey != null ? shiftKeyIndex : super.getShiftKeyIndex();
+  }
+
   public SerbianKeyboard(
       Context context, int layoutTemplateResId, CharSequence characters, int columns,
           int horizontalPadding) {
@@ -91,6 +335,13 @@ public class SerbianKeyboard extends Keyboard {
   /** Cancel key has modified 'inside' behavior. */
   static class Key extends Keyboard.Key {
 
+    /** How far down the touch area of the cancel key is moved. */
+    static final int CANCEL_KEY_OFFSET = 10;
+
+    public Key(Keyboard.Row parent) {
+      super(parent);
+    }
+
     public Key(Resources res, Keyboard.Row parent, int x, int y, XmlResourceParser parser) {
       super(res, parent, x, y, parser);
     }
@@ -101,7 +352,7 @@ public class SerbianKeyboard extends Keyboard {
      */
     @Override
     public boolean isInside(int x, int y) {
-      return super.isInside(x, codes[0] == KEYCODE_CANCEL ? y - 10 : y);
+      return super.isInside(x, codes[0] == KEYCODE_CANCEL ? y - CANCEL_KEY_OFFSET : y);
     }
   }
 }
@@ -30,6 +30,7 @@ import android.util.AttributeSet;
 public class SerbianKeyboardView extends KeyboardView {
 
   static final int KEYCODE_OPTIONS = -100;
+  static final int KEYCODE_CONVERT_SCRIPT = -101;
 
   public SerbianKeyboardView(Context context, AttributeSet attrs) {
     super(context, attrs);
@@ -44,6 +45,9 @@ public class SerbianKeyboardView extends KeyboardView {
     if (key.codes[0] == Keyboard.KEYCODE_CANCEL) {
       getOnKeyboardActionListener().onKey(KEYCODE_OPTIONS, null);
       return true;
+    } else if (key.codes[0] == Keyboard.KEYCODE_MODE_CHANGE) {
+      getOnKeyboardActionListener().onKey(KEYCODE_CONVERT_SCRIPT, null);
+      return true;
     } else {
       return super.onLongPress(key);
     }
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * A local copy of the committed text just before the cursor in the editor,
+ * so that questions like the caps mode at the cursor can be answered without
+ * a round trip to the editor's process.
+ *
+ * <p>The copy is read from the editor once, and then kept up to date from
+ * the edits the input method makes itself.  The selection updates which the
+ * editor reports are checked against the cursor positions those edits went
+ * through; an update the edits do not explain means that the text changed
+ * in some other way, and the copy is then stale until it is read again.
+ *
+ * <p>Only the last {@link #CAPACITY} characters are kept.  The text reads as
+ * a {@link CharSequence} which ends at the cursor.  When the copy does not
+ * reach back to the start of the text, deleting it down to fewer than
+ * {@link #MIN_TRUNCATED_LENGTH} characters makes it stale, so that it is not
+ * taken for the start of the text.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class ShadowText implements CharSequence {
+
+  /** How many characters before the cursor are kept. */
+  public static final int CAPACITY = 256;
+
+  /**
+   * The fewest characters a copy which does not reach back to the start of
+   * the text may hold before it has to be read again.
+   */
+  public static final int MIN_TRUNCATED_LENGTH = CAPACITY / 4;
+
+  // The caps modes, as in android.text.TextUtils and the matching flags of
+  // android.text.InputType.
+  public static final int CAP_MODE_CHARACTERS = 0x1000;
+  public static final int CAP_MODE_WORDS = 0x2000;
+  public static final int CAP_MODE_SENTENCES = 0x4000;
+
+  private final char[] text = new char[2 * CAPACITY];
+  private int start;
+  private int end;
+  private boolean valid;
+
+  /** Whether there is text before the start of the copy. */
+  private boolean truncated;
+
+  /** The position of the cursor in the editor. */
+  private int position;
+
+  // The lowest and highest cursor positions since the last update the edits
+  // explained; any update in between may still be on its way.
+  private int lowest;
+  private int highest;
+
+  /**
+   * Starts over from the text before the cursor as read from the editor.
+   *
+   * @param before the text before the cursor, or null if it could not be read
+   * @param position where the cursor is, or -1 if not known
+   */
+  public void seed(CharSequence before, int position) {
+    if (before == null || position < 0) {
+      invalidate();
+      return;
+    }
+    start = 0;
+    end = 0;
+    valid = true;
+    truncated = before.length() < position;
+    this.position = position;
+    lowest = position;
+    highest = position;
+    append(before, false);
+  }
+
+  /** Marks the copy stale, until it is seeded again. */
+  public void invalidate() {
+    valid = false;
+    start = 0;
+    end = 0;
+  }
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  /** Inserts text at the cursor, moving the cursor after it. */
+  public void append(CharSequence inserted) {
+    append(inserted, true);
+  }
+
+  /** Inserts a character at the cursor, moving the cursor after it. */
+  public void append(char c) {
+    if (!valid) {
+      return;
+    }
+    if (end == text.length) {
+      final int keep = Math.min(end - start, CAPACITY - 1);
+      truncated |= keep < end - start;
+      System.arraycopy(text, end - keep, text, 0, keep);
+      start = 0;
+      end = keep;
+    }
+    text[end++] = c;
+    dropHead();
+    moveTo(position + 1);
+  }
+
+  private void append(CharSequence inserted, boolean moveCursor) {
+    if (!valid) {
+      return;
+    }
+    final int length = inserted.length();
+    final int from = Math.max(0, length - CAPACITY);
+    if (from > 0) {
+      truncated = true;
+    }
+    if (end + length - from > text.length) {
+      // Keep the tail, making room for the rest.
+      final int keep = Math.min(end - start, CAPACITY - (length - from));
+      truncated |= keep < end - start;
+      System.arraycopy(text, end - keep, text, 0, keep);
+      start = 0;
+      end = keep;
+    }
+    for (int i = from; i < length; i++) {
+      text[end++] = inserted.charAt(i);
+    }
+    dropHead();
+    if (moveCursor) {
+      moveTo(position + length);
+    }
+  }
+
+  /** Drops the characters beyond {@link #CAPACITY} from the start. */
+  private void dropHead() {
+    if (end - start > CAPACITY) {
+      start = end - CAPACITY;
+      truncated = true;
+    }
+  }
+
+  /**
+   * Deletes {@code count} characters before the cursor.  Deleting more than
+   * is kept makes the copy stale, and so does deleting a copy which does not
+   * reach back to the start of the text down to fewer than
+   * {@link #MIN_TRUNCATED_LENGTH} characters.
+   */
+  public void delete(int count) {
+    if (!valid) {
+      return;
+    }
+    if (count > end - start
+        || (truncated && end - start - count < MIN_TRUNCATED_LENGTH)) {
+      invalidate();
+      return;
+    }
+    end -= count;
+    moveTo(position - count);
+  }
+
+  private void moveTo(int newPosition) {
+    position = newPosition;
+    lowest = Math.min(lowest, newPosition);
+    highest = Math.max(highest, newPosition);
+  }
+
+  /**
+   * Checks a selection update from the editor against the edits made.
+   *
+   * @param committedEnd where the committed text before the cursor ends: the
+   *     start of the composing text if there is any, else the cursor
+   * @param collapsed whether the selection is empty
+   */
+  public void onSelectionUpdate(int committedEnd, boolean collapsed) {
+    if (!valid) {
+      return;
+    }
+    if (!collapsed || committedEnd < lowest || committedEnd > highest) {
+      invalidate();
+    } else if (committedEnd == position) {
+      // The editor has caught up with all the edits.
+      lowest = position;
+      highest = position;
+    }
+  }
+
+  /**
+   * The caps mode at the cursor, by the rules of
+   * android.text.TextUtils.getCapsMode, for the {@code reqModes} asked for.
+   * The start of a copy which does not reach back to the start of the text
+   * counts as the middle of a line.  The copy must be valid.
+   */
+  public int getCapsMode(int reqModes) {
+    int mode = reqModes & CAP_MODE_CHARACTERS;
+    if ((reqModes & (CAP_MODE_WORDS | CAP_MODE_SENTENCES)) == 0) {
+      return mode;
+    }
+    // Back over allowed opening punctuation.
+    int i = end;
+    while (i > start && isQuote(text[i - 1], Character.START_PUNCTUATION)) {
+      i--;
+    }
+    // Start of paragraph, with optional whitespace.
+    int j = i;
+    while (j > start && (text[j - 1] == ' ' || text[j - 1] == '\t')) {
+      j--;
+    }
+    if ((j == start && !truncated) || (j > start && text[j - 1] == '\n')) {
+      return mode | CAP_MODE_WORDS;
+    }
+    // Or start of word if we are that style.
+    if ((reqModes & CAP_MODE_SENTENCES) == 0) {
+      return i != j ? mode | CAP_MODE_WORDS : mode;
+    }
+    // There must be a space if not the start of paragraph.
+    if (i == j) {
+      return mode;
+    }
+    // Back over allowed closing punctuation.
+    while (j > start && isQuote(text[j - 1], Character.END_PUNCTUATION)) {
+      j--;
+    }
+    if (j > start) {
+      final char c = text[j - 1];
+      if (c == '.' || c == '?' || c == '!') {
+        if (c == '.') {
+          // A word with a period within it is an abbreviation.
+          for (int k = j - 2; k >= start; k--) {
+            if (text[k] == '.') {
+              return mode;
+            }
+            if (!Character.isLetter(text[k])) {
+              break;
+            }
+          }
+        }
+        return mode | CAP_MODE_SENTENCES;
+      }
+    }
+    return mode;
+  }
+
+  private static boolean isQuote(char c, int punctuationType) {
+    return c == '"' || c == '\'' || Character.getType(c) == punctuationType;
+  }
+
+  public int length() {
+    return end - start;
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= end - start) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return text[start + index];
+  }
+
+  public CharSequence subSequence(int from, int to) {
+    if (from < 0 || to > end - start || from > to) {
+      throw new IndexOutOfBoundsException(from + ", " + to);
+    }
+    return new String(text, start + from, to - from);
+  }
+
+  @Override
+  public String toString() {
+    return new String(text, start, end - start);
+  }
+}
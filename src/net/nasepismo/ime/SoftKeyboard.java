@@ -16,13 +16,25 @@
 
 package net.nasepismo.ime;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import android.content.SharedPreferences;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.text.method.MetaKeyKeyListener;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
@@ -38,8 +50,34 @@ import android.view.inputmethod.InputConnection;
  * be fleshed out as appropriate.
  */
 public class SoftKeyboard extends InputMethodService
-    implements KeyboardView.OnKeyboardActionListener {
+    implements KeyboardView.OnKeyboardActionListener, KeyHandler.Host,
+    SuggestionWorker.Generator, SuggestionWorker.Listener {
   static final boolean DEBUG = false;
+  private static final String TAG = "SoftKeyboard";
+
+  /** The main dictionary, in the package assets. */
+  private static final String DICTIONARY_ASSET = "sr.dict";
+
+  /** The next word predictions for the main dictionary, in the package assets. */
+  private static final String NGRAM_ASSET = "sr.ngrams";
+
+  /** How many dictionary completions to offer besides the typed word. */
+  private static final int MAX_COMPLETIONS = 16;
+
+  /** The accents which dead keys can produce, in spacing and combining forms. */
+  private static final int[] DEAD_KEY_ACCENTS = {
+      '`', '^', '~', '\u00a8', '\u00b4', '\u02c7',
+      '\u0300', '\u0301', '\u0302', '\u0303', '\u0308', '\u030c',
+  };
+
+  /** The settings of the input method. */
+  private static final String PREFERENCES = "settings";
+
+  /** Whether letters typed in Latin are converted to Cyrillic. */
+  private static final String PREF_TRANSLITERATE = "transliterate";
+
+  /** How many measured candidate widths to remember. */
+  private static final int TEXT_WIDTH_CACHE_SIZE = 256;
 
   /**
    * This boolean indicates the optional example code for performing
@@ -51,25 +89,62 @@ public class SoftKeyboard extends InputMethodService
    */
   static final boolean PROCESS_HARD_KEYS = true;
 
+  /**
+   * Whether the stages of handling keys are timed, for {@link #dump}.  Each
+   * stage then reads the clock, so this is off unless the timings are
+   * wanted.
+   */
+  static final boolean TIME_KEYS = false;
+
+  /**
+   * Whether the events the input method gets are recorded into a
+   * {@link KeyTrace}, to be saved through {@link #dump} and replayed off the
+   * device.  The trace holds everything typed, so this must stay off in
+   * releases.
+   */
+  static final boolean RECORD_KEYS = false;
+
+  /** Where {@link #dump} saves the key trace, in the files directory. */
+  private static final String TRACE_FILE = "keys.trace";
+
   private KeyboardView inputView;
+  private CoalescingInputConnection connection;
+  private final ShadowText shadow = new ShadowText();
+  private final KeyTimings timings = new KeyTimings(TIME_KEYS);
+  private final KeyTrace trace = RECORD_KEYS ? new KeyTrace(KeyTrace.DEFAULT_CAPACITY) : null;
   private CandidateView candidateView;
   private CompletionInfo[] mCompletions;
 
-  private StringBuilder composing = new StringBuilder();
-  private boolean enablePrediction;
-  private boolean enableCompletion;
-  private int lastDisplayWidth;
+  /** The main thread, which the key handling runs on. */
+  private final Scheduler scheduler = new HandlerScheduler(new Handler());
+  private HandlerThread workerThread;
+  private KeyHandler keyHandler;
   private boolean isCapsLockPressed;
   private long lastShiftTime;
   private long metaState;
 
-  private SerbianKeyboard symbolsKeyboard;
-  private SerbianKeyboard symbolsShiftedKeyboard;
-  private SerbianKeyboard baseKeyboard;
+  /** The keyboards built so far, by display width. */
+  private final SparseArray<KeyboardSet> keyboardSets = new SparseArray<KeyboardSet>();
+  private KeyboardSet keyboards;
 
   private SerbianKeyboard currentKeyboard;
 
-  private String wordSeparators;
+  private CharacterTable characters;
+
+  private BinaryDictionary dictionary;
+  private NgramModel ngrams;
+  private SuggestionWorker suggestionWorker;
+  private UserDictionary userDictionary;
+  private SuggestionEngine suggestionEngine;
+  private final TextWidthCache textWidthCache = new TextWidthCache(TEXT_WIDTH_CACHE_SIZE);
+  private int candidateFontSize;
+  private Suggestions suggestions;
+  private boolean showingPredictions;
+
+  private final ScriptConverter scriptConverter = new ScriptConverter();
+
+  /** Spells out predicted words; main thread only. */
+  private final char[] predictionBuffer = new char[BinaryDictionary.MAX_WORD_LENGTH];
 
   /**
    * Main initialization of the input method component.  Be sure to call
@@ -78,7 +153,160 @@ public class SoftKeyboard extends InputMethodService
   @Override
   public void onCreate() {
     super.onCreate();
-    wordSeparators = getResources().getString(R.string.word_separators);
+    characters = new CharacterTable(getResources().getString(R.string.word_separators));
+    addDeadChars(characters);
+    userDictionary = new UserDictionary(getFilesDir());
+    suggestionEngine = new SuggestionEngine(null, userDictionary);
+    workerThread = new HandlerThread("SuggestionWorker", Process.THREAD_PRIORITY_BACKGROUND);
+    workerThread.start();
+    final Scheduler worker = new HandlerScheduler(new Handler(workerThread.getLooper()));
+    suggestionWorker = new SuggestionWorker(MAX_COMPLETIONS, this, this, worker, scheduler);
+    keyHandler = new KeyHandler(this, characters, null, suggestionWorker, shadow, timings,
+        scheduler);
+    keyHandler.setTransliterate(getSharedPreferences(PREFERENCES, MODE_PRIVATE)
+        .getBoolean(PREF_TRANSLITERATE, false));
+    worker.post(new Runnable() {
+      public void run() {
+        openDictionaries();
+      }
+    });
+  }
+
+  /**
+   * Opens the dictionary and the n-grams, on the suggestion worker thread:
+   * an asset the package keeps compressed is first copied out of it, which
+   * takes a while for one of several megabytes.  The suggestion engine,
+   * which runs on this thread, gets the dictionary first, so that by the
+   * time the main thread looks words up in it the engine knows it too.
+   * Until then the typed word is the only suggestion.
+   */
+  private void openDictionaries() {
+    final BinaryDictionary openedDictionary;
+    try {
+      openedDictionary = BinaryDictionary.wrap(MappedAssets.map(this, DICTIONARY_ASSET));
+    } catch (IOException e) {
+      // Keep going without suggestions other than the typed word.
+      Log.w(TAG, "Could not open the dictionary", e);
+      return;
+    }
+    NgramModel model = null;
+    try {
+      model = NgramModel.wrap(MappedAssets.map(this, NGRAM_ASSET), openedDictionary);
+    } catch (IOException e) {
+      // Keep going without next word predictions.
+      Log.w(TAG, "Could not open the n-grams", e);
+    }
+    final NgramModel openedNgrams = model;
+    suggestionEngine.setDictionary(openedDictionary);
+    scheduler.post(new Runnable() {
+      public void run() {
+        dictionary = openedDictionary;
+        ngrams = openedNgrams;
+        keyHandler.setDictionary(openedDictionary);
+      }
+    });
+  }
+
+  /**
+   * Copies the dead key compositions of the platform into {@code table}, for
+   * the accents the key character maps produce and all the letters up to the
+   * end of the table.
+   */
+  private static void addDeadChars(CharacterTable table) {
+    for (int accent : DEAD_KEY_ACCENTS) {
+      for (int c = 0; c < CharacterTable.TABLE_SIZE; c++) {
+        int composed = KeyEvent.getDeadChar(accent, c);
+        if (composed != 0) {
+          table.addDeadChar(accent, c, composed);
+        }
+      }
+    }
+  }
+
+  /**
+   * The connection to the current editor, through a layer which saves calls
+   * into the editor's process; see {@link CoalescingInputConnection}.
+   */
+  @Override
+  public InputConnection getCurrentInputConnection() {
+    final InputConnection target = super.getCurrentInputConnection();
+    if (target == null) {
+      return null;
+    }
+    if (connection == null || connection.getTarget() != target) {
+      if (connection != null) {
+        connection.getEditor().flush();
+      }
+      connection = new CoalescingInputConnection(target, shadow, timings, scheduler);
+    }
+    return connection;
+  }
+
+  /**
+   * The current editor, through the layer which saves calls into it, or null
+   * if there is none.
+   */
+  public CoalescingEditor getEditor() {
+    final CoalescingInputConnection ic = (CoalescingInputConnection) getCurrentInputConnection();
+    return ic == null ? null : ic.getEditor();
+  }
+
+  /**
+   * Prints how long the stages of handling keys take, along with the calls
+   * made into the editor, for {@code adb shell dumpsys input_method}.
+   *
+   * <p>When dumped as a service, with {@code adb shell dumpsys activity
+   * service net.nasepismo.ime/.SoftKeyboard}, the argument
+   * {@code save-trace} saves the key trace recorded so far.  The trace is
+   * played back off the device, by the TraceCheck of the benchmarks module,
+   * rather than into the running input method.
+   */
+  @Override
+  protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+    if (args != null && args.length > 0 && args[0].equals("save-trace")) {
+      saveTrace(fout);
+      return;
+    }
+    super.dump(fd, fout, args);
+    fout.println("SoftKeyboard:");
+    timings.dump(fout, "  ");
+    if (connection != null) {
+      fout.println("  editor calls: " + connection.getEditor().getCallCount());
+    }
+    fout.println("  suggestion requests coalesced: " + suggestionWorker.getCoalescedCount()
+        + " discarded: " + suggestionWorker.getDiscardedCount());
+    fout.println("  text width cache: hits " + textWidthCache.getHitCount()
+        + " misses " + textWidthCache.getMissCount()
+        + " hit rate " + Math.round(textWidthCache.getHitRate() * 100) + "%");
+  }
+
+  private void saveTrace(PrintWriter fout) {
+    if (trace == null) {
+      fout.println("Key traces are not recorded in this build");
+      return;
+    }
+    final File file = getFileStreamPath(TRACE_FILE);
+    try {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+      try {
+        trace.write(out);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      fout.println("Could not save the key trace: " + e);
+      return;
+    }
+    fout.println("Saved " + trace.getEventCount() + " events over " + trace.getDuration()
+        + " ms to " + file + (trace.isFull() ? " (full)" : ""));
+  }
+
+  @Override
+  public void onDestroy() {
+    suggestionWorker.cancel();
+    workerThread.quit();
+    userDictionary.close();
+    super.onDestroy();
   }
 
   /**
@@ -87,17 +315,24 @@ public class SoftKeyboard extends InputMethodService
    */
   @Override
   public void onInitializeInterface() {
-    if (baseKeyboard != null) {
-      // Configuration changes can happen after the keyboard gets recreated,
-      // so we need to be able to re-build the keyboards if the available
-      // space has changed.
-      int displayWidth = getMaxWidth();
-      if (displayWidth == lastDisplayWidth) return;
-      lastDisplayWidth = displayWidth;
+    // The measured candidate widths are only good for one font size.
+    int fontSize = getResources().getDimensionPixelSize(R.dimen.candidate_font_height);
+    if (fontSize != candidateFontSize) {
+      candidateFontSize = fontSize;
+      textWidthCache.clear();
     }
-    baseKeyboard = new SerbianKeyboard(this, R.xml.qwerty);
-    symbolsKeyboard = new SerbianKeyboard(this, R.xml.symbols);
-    symbolsShiftedKeyboard = new SerbianKeyboard(this, R.xml.symbols_shift);
+    // Configuration changes can happen after the keyboard gets recreated,
+    // so we need to switch to keyboards built for the available space if it
+    // has changed.  Those built for other widths are kept for when it
+    // changes back.
+    int displayWidth = getMaxWidth();
+    keyboards = keyboardSets.get(displayWidth);
+    if (keyboards == null) {
+      keyboards = new KeyboardSet(this);
+      keyboardSets.put(displayWidth, keyboards);
+      Looper.myQueue().addIdleHandler(keyboards);
+    }
+    suggestionEngine.setAdjacency(keyboards.getBase().getKeyAdjacency());
   }
 
   /**
@@ -111,7 +346,7 @@ public class SoftKeyboard extends InputMethodService
     inputView = (KeyboardView) getLayoutInflater().inflate(
         R.layout.input, null);
     inputView.setOnKeyboardActionListener(this);
-    inputView.setKeyboard(baseKeyboard);
+    inputView.setKeyboard(keyboards.getBase());
     return inputView;
   }
 
@@ -123,6 +358,8 @@ public class SoftKeyboard extends InputMethodService
   public View onCreateCandidatesView() {
     candidateView = new CandidateView(this);
     candidateView.setService(this);
+    candidateView.setTextWidthCache(textWidthCache);
+    candidateView.setKeyTimings(timings);
     return candidateView;
   }
 
@@ -135,19 +372,19 @@ public class SoftKeyboard extends InputMethodService
   @Override
   public void onStartInput(EditorInfo attribute, boolean restarting) {
     super.onStartInput(attribute, restarting);
-
-    // Reset our state.  We want to do this even if restarting, because
-    // the underlying state of the text editor could have changed in any way.
-    composing.setLength(0);
-    updateCandidates();
+    if (trace != null) {
+      trace.recordStartInput(attribute.inputType, attribute.imeOptions,
+          attribute.initialSelStart, attribute.initialSelEnd, restarting);
+    }
 
     if (!restarting) {
       // Clear shift states.
       metaState = 0;
     }
 
-    enablePrediction = false;
-    enableCompletion = false;
+    boolean enablePrediction = false;
+    boolean enableCompletion = false;
+    boolean updateShift = true;
     mCompletions = null;
 
     // We are now going to initialize our state based on the type of
@@ -157,13 +394,15 @@ public class SoftKeyboard extends InputMethodService
     case EditorInfo.TYPE_CLASS_DATETIME:
       // Numbers and dates default to the symbols keyboard, with
       // no extra features.
-      currentKeyboard = symbolsKeyboard;
+      currentKeyboard = keyboards.getSymbols();
+      updateShift = false;
       break;
 
     case EditorInfo.TYPE_CLASS_PHONE:
       // Phones will also default to the symbols keyboard, though
       // often you will want to have a dedicated phone keyboard.
-      currentKeyboard = symbolsKeyboard;
+      currentKeyboard = keyboards.getSymbols();
+      updateShift = false;
       break;
 
     case EditorInfo.TYPE_CLASS_TEXT:
@@ -171,7 +410,7 @@ public class SoftKeyboard extends InputMethodService
       // normal alphabetic keyboard, and assume that we should
       // be doing predictive text (showing candidates as the
       // user types).
-      currentKeyboard = baseKeyboard;
+      currentKeyboard = keyboards.getBase();
       enablePrediction = true;
 
       // We now look for a few special variations of text that will
@@ -202,17 +441,23 @@ public class SoftKeyboard extends InputMethodService
         enableCompletion = isFullscreenMode();
       }
 
-      // We also want to look at the current state of the editor
-      // to decide whether our alphabetic keyboard should start out
-      // shifted.
-      updateShiftKeyState(attribute);
       break;
 
     default:
       // For all unknown input types, default to the alphabetic
       // keyboard with no special features.
-      currentKeyboard = baseKeyboard;
-      updateShiftKeyState(attribute);
+      currentKeyboard = keyboards.getBase();
+    }
+
+    // Reset our state.  We want to do this even if restarting, because
+    // the underlying state of the text editor could have changed in any way.
+    keyHandler.startInput(attribute.inputType, attribute.initialSelStart,
+        attribute.initialSelEnd, enablePrediction, enableCompletion);
+    if (updateShift) {
+      // We also want to look at the current state of the editor
+      // to decide whether our alphabetic keyboard should start out
+      // shifted.
+      keyHandler.updateShiftKeyState();
     }
 
     // Update the label on the enter key, depending on what the application
@@ -226,19 +471,21 @@ public class SoftKeyboard extends InputMethodService
    */
   @Override
   public void onFinishInput() {
+    if (trace != null) {
+      trace.recordFinishInput();
+    }
+    // Send what is held back, and clear current composing text and
+    // candidates.
+    keyHandler.finishInput();
     super.onFinishInput();
 
-    // Clear current composing text and candidates.
-    composing.setLength(0);
-    updateCandidates();
-
     // We only hide the candidates window when finishing input on
     // a particular editor, to avoid popping the underlying application
     // up and down if the user is entering text into the bottom of
     // its window.
     setCandidatesViewShown(false);
 
-    currentKeyboard = baseKeyboard;
+    currentKeyboard = keyboards.getBase();
     if (inputView != null) {
       inputView.closing();
     }
@@ -261,18 +508,11 @@ public class SoftKeyboard extends InputMethodService
       int candidatesStart, int candidatesEnd) {
     super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
         candidatesStart, candidatesEnd);
-
-    // If the current selection in the text view changes, we should
-    // clear whatever candidate text we have.
-    if (composing.length() > 0 && (newSelStart != candidatesEnd
-        || newSelEnd != candidatesEnd)) {
-      composing.setLength(0);
-      updateCandidates();
-      InputConnection ic = getCurrentInputConnection();
-      if (ic != null) {
-        ic.finishComposingText();
-      }
+    if (trace != null) {
+      trace.recordSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
+          candidatesStart, candidatesEnd);
     }
+    keyHandler.onUpdateSelection(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
   }
 
   /**
@@ -283,19 +523,19 @@ public class SoftKeyboard extends InputMethodService
    */
   @Override
   public void onDisplayCompletions(CompletionInfo[] completions) {
-    if (enableCompletion) {
+    if (keyHandler.isCompletionEnabled()) {
       mCompletions = completions;
       if (completions == null) {
         setSuggestions(null, false, false);
         return;
       }
 
-      List<String> stringList = new ArrayList<String>();
+      Suggestions list = suggestionWorker.obtain();
       for (int i=0; i<(completions != null ? completions.length : 0); i++) {
         CompletionInfo ci = completions[i];
-        if (ci != null) stringList.add(ci.getText().toString());
+        if (ci != null) list.add(i, 0, ci.getText());
       }
-      setSuggestions(stringList, true, true);
+      setSuggestions(list, true, true);
     }
   }
 
@@ -309,28 +549,10 @@ public class SoftKeyboard extends InputMethodService
         keyCode, event);
     int c = event.getUnicodeChar(MetaKeyKeyListener.getMetaState(metaState));
     metaState = MetaKeyKeyListener.adjustMetaAfterKeypress(metaState);
-    InputConnection ic = getCurrentInputConnection();
-    if (c == 0 || ic == null) {
-      return false;
-    }
-
     if ((c & KeyCharacterMap.COMBINING_ACCENT) != 0) {
       c = c & KeyCharacterMap.COMBINING_ACCENT_MASK;
     }
-
-    if (composing.length() > 0) {
-      char accent = composing.charAt(composing.length() -1 );
-      int composed = KeyEvent.getDeadChar(accent, c);
-
-      if (composed != 0) {
-        c = composed;
-        composing.setLength(composing.length()-1);
-      }
-    }
-
-    onKey(c, null);
-
-    return true;
+    return keyHandler.onHardKey(c, event.getRepeatCount() > 0);
   }
 
   /**
@@ -340,6 +562,9 @@ public class SoftKeyboard extends InputMethodService
    */
   @Override
   public boolean onKeyDown(int keyCode, KeyEvent event) {
+    if (trace != null) {
+      trace.recordKeyDown(keyCode, event.getMetaState(), event.getRepeatCount());
+    }
     switch (keyCode) {
     case KeyEvent.KEYCODE_BACK:
       // The InputMethodService already takes care of the back
@@ -357,8 +582,7 @@ public class SoftKeyboard extends InputMethodService
       // Special handling of the delete key: if we currently are
       // composing text for the user, we want to modify that instead
       // of let the application to the delete itself.
-      if (composing.length() > 0) {
-        onKey(Keyboard.KEYCODE_DELETE, null);
+      if (keyHandler.onDeleteKeyDown(event.getRepeatCount())) {
         return true;
       }
       break;
@@ -392,7 +616,7 @@ public class SoftKeyboard extends InputMethodService
             return true;
           }
         }
-        if (enablePrediction && translateKeyDown(keyCode, event)) {
+        if (keyHandler.isPredictionEnabled() && translateKeyDown(keyCode, event)) {
           return true;
         }
       }
@@ -408,11 +632,15 @@ public class SoftKeyboard extends InputMethodService
    */
   @Override
   public boolean onKeyUp(int keyCode, KeyEvent event) {
+    if (trace != null) {
+      trace.recordKeyUp(keyCode, event.getMetaState());
+    }
     // If we want to do transformations on text being entered with a hard
     // keyboard, we need to process the up events to update the meta key
     // state we are tracking.
+    keyHandler.onKeyUp();
     if (PROCESS_HARD_KEYS) {
-      if (enablePrediction) {
+      if (keyHandler.isPredictionEnabled()) {
         metaState = MetaKeyKeyListener.handleKeyUp(metaState,
             keyCode, event);
       }
@@ -422,137 +650,119 @@ public class SoftKeyboard extends InputMethodService
   }
 
   /**
-   * Helper function to commit any text being composed in to the editor.
+   * Helper to send a key down / key up pair to the current editor.
    */
-  private void commitTyped(InputConnection inputConnection) {
-    if (composing.length() > 0) {
-      inputConnection.commitText(composing, composing.length());
-      composing.setLength(0);
-      updateCandidates();
-    }
+  private void keyDownUp(int keyEventCode) {
+    getEditor().sendKeyDownUp(keyEventCode, 0);
   }
 
-  /**
-   * Helper to update the shift state of our keyboard based on the initial
-   * editor state.
-   */
-  private void updateShiftKeyState(EditorInfo attr) {
-    if (attr != null
-        && inputView != null && baseKeyboard == inputView.getKeyboard()) {
-      int caps = 0;
-      EditorInfo ei = getCurrentInputEditorInfo();
-      if (ei != null && ei.inputType != EditorInfo.TYPE_NULL) {
-        caps = getCurrentInputConnection().getCursorCapsMode(attr.inputType);
-      }
-      inputView.setShifted(isCapsLockPressed || caps != 0);
-    }
-  }
+  // Implementation of KeyboardViewListener
 
-  /**
-   * Helper to determine if a given character code is alphabetic.
-   */
-  private boolean isAlphabet(int code) {
-    if (Character.isLetter(code)) {
-      return true;
-    } else {
-      return false;
+  public void onKey(int primaryCode, int[] keyCodes) {
+    if (trace != null) {
+      trace.recordKey(primaryCode, keyCodes);
     }
+    processKey(primaryCode, keyCodes);
   }
 
   /**
-   * Helper to send a key down / key up pair to the current editor.
+   * Handles a key of the soft keyboard: the keys which only act on the
+   * keyboard here, and those which type text in the {@link KeyHandler}.
    */
-  private void keyDownUp(int keyEventCode) {
-    getCurrentInputConnection().sendKeyEvent(
-        new KeyEvent(KeyEvent.ACTION_DOWN, keyEventCode));
-    getCurrentInputConnection().sendKeyEvent(
-        new KeyEvent(KeyEvent.ACTION_UP, keyEventCode));
-  }
-
-  /**
-   * Helper to send a character to the editor as raw key events.
-   */
-  private void sendKey(int keyCode) {
-    switch (keyCode) {
-    case '\n':
-      keyDownUp(KeyEvent.KEYCODE_ENTER);
-      break;
-    default:
-      if (keyCode >= '0' && keyCode <= '9') {
-        keyDownUp(keyCode - '0' + KeyEvent.KEYCODE_0);
-      } else {
-        getCurrentInputConnection().commitText(String.valueOf((char) keyCode), 1);
-      }
-      break;
-    }
-  }
-
-  // Implementation of KeyboardViewListener
-
-  public void onKey(int primaryCode, int[] keyCodes) {
-    if (isWordSeparator(primaryCode)) {
-      // Handle separator
-      if (composing.length() > 0) {
-        commitTyped(getCurrentInputConnection());
-      }
-      sendKey(primaryCode);
-      updateShiftKeyState(getCurrentInputEditorInfo());
-    } else if (primaryCode == Keyboard.KEYCODE_DELETE) {
-      handleBackspace();
-    } else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
+  private void processKey(int primaryCode, int[] keyCodes) {
+    if (primaryCode == Keyboard.KEYCODE_SHIFT) {
       handleShift();
     } else if (primaryCode == Keyboard.KEYCODE_CANCEL) {
       handleClose();
-      return;
     } else if (primaryCode == SerbianKeyboardView.KEYCODE_OPTIONS) {
-      // Show a menu or somethin'
-    } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE && inputView != null) {
-      Keyboard current = inputView.getKeyboard();
-      if (current == symbolsKeyboard || current == symbolsShiftedKeyboard) {
-        current = baseKeyboard;
-      } else {
-        current = symbolsKeyboard;
-      }
-      inputView.setKeyboard(current);
-      if (current == symbolsKeyboard) {
-        current.setShifted(false);
+      toggleTransliteration();
+    } else if (primaryCode == SerbianKeyboardView.KEYCODE_CONVERT_SCRIPT) {
+      convertScript();
+    } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE) {
+      if (inputView != null) {
+        Keyboard current = inputView.getKeyboard();
+        if (keyboards.isSymbols(current)) {
+          current = keyboards.getBase();
+        } else {
+          current = keyboards.getSymbols();
+        }
+        inputView.setKeyboard(current);
+        if (current == keyboards.getSymbols()) {
+          current.setShifted(false);
+        }
       }
     } else {
-      handleCharacter(primaryCode, keyCodes);
+      keyHandler.onKey(primaryCode, keyCodes);
+      if (DEBUG && connection != null) {
+        Log.d(TAG, "Editor calls for key " + primaryCode + ": "
+            + connection.getEditor().getEditCallCount());
+      }
     }
   }
 
   public void onText(CharSequence text) {
-    InputConnection ic = getCurrentInputConnection();
-    if (ic == null) return;
-    ic.beginBatchEdit();
-    if (composing.length() > 0) {
-      commitTyped(ic);
+    if (trace != null) {
+      trace.recordText(text);
     }
-    ic.commitText(text, 0);
-    ic.endBatchEdit();
-    updateShiftKeyState(getCurrentInputEditorInfo());
+    keyHandler.onText(text);
   }
 
   /**
-   * Update the list of available candidates from the current composing
-   * text.  This will need to be filled in by however you are determining
-   * candidates.
+   * Shows the words likely to follow the last committed ones, if there are
+   * any.  The model reads a bounded number of records, so unlike the
+   * completions this runs right on the main thread.
    */
-  private void updateCandidates() {
-    if (!enableCompletion) {
-      if (composing.length() > 0) {
-        ArrayList<String> list = new ArrayList<String>();
-        list.add(composing.toString());
-        setSuggestions(list, true, true);
-      } else {
-        setSuggestions(null, false, false);
-      }
+  public void showPredictions() {
+    final int lastWord = keyHandler.getLastWord();
+    if (ngrams == null || lastWord == BinaryDictionary.NOT_FOUND) {
+      setSuggestions(null, false, false);
+      return;
+    }
+    Suggestions list = suggestionWorker.obtain();
+    ngrams.predict(keyHandler.getWordBeforeLast(), lastWord, list);
+    list.sort();
+    for (int i = 0; i < list.size(); i++) {
+      int length = dictionary.getWord(list.getId(i), predictionBuffer);
+      list.setText(i, predictionBuffer, 0, length);
+    }
+    if (list.size() == 0) {
+      suggestionWorker.recycle(list);
+      list = null;
     }
+    setSuggestions(list, true, true);
+    showingPredictions = list != null;
   }
 
-  public void setSuggestions(List<String> suggestions, boolean completions,
+  public void onWordCommitted(CharSequence word) {
+    userDictionary.record(word);
+  }
+
+  /**
+   * Computes the candidates for {@code word}.  Runs on the suggestion worker
+   * thread, so it must not touch any state of the service other than the
+   * suggestion engine.
+   */
+  public void generate(CharSequence word, int node, Suggestions out) {
+    final long start = timings.start();
+    suggestionEngine.generate(word, node, out);
+    timings.stop(KeyTimings.CANDIDATES, start);
+  }
+
+  public void onSuggestions(Suggestions suggestions) {
+    setSuggestions(suggestions, true, suggestions.isTypedWordValid());
+  }
+
+  /**
+   * Shows the given suggestions, which this takes over from the suggestion
+   * worker, and recycles the ones shown before.
+   */
+  public void setSuggestions(Suggestions suggestions, boolean completions,
       boolean typedWordValid) {
+    if (this.suggestions != null && this.suggestions != suggestions) {
+      suggestionWorker.recycle(this.suggestions);
+    }
+    this.suggestions = suggestions;
+    showingPredictions = false;
     if (suggestions != null && suggestions.size() > 0) {
       setCandidatesViewShown(true);
     } else if (isExtractViewShown()) {
@@ -563,20 +773,30 @@ public class SoftKeyboard extends InputMethodService
     }
   }
 
-  private void handleBackspace() {
-    final int length = composing.length();
-    if (length > 1) {
-      composing.delete(length - 1, length);
-      getCurrentInputConnection().setComposingText(composing, 1);
-      updateCandidates();
-    } else if (length > 0) {
-      composing.setLength(0);
-      getCurrentInputConnection().commitText("", 0);
-      updateCandidates();
-    } else {
-      keyDownUp(KeyEvent.KEYCODE_DEL);
+  /**
+   * Switches the conversion of Latin letters to Cyrillic on or off, and
+   * remembers the choice.
+   */
+  private void toggleTransliteration() {
+    final boolean transliterate = !keyHandler.isTransliterating();
+    keyHandler.setTransliterate(transliterate);
+    SharedPreferences.Editor editor =
+        getSharedPreferences(PREFERENCES, MODE_PRIVATE).edit();
+    editor.putBoolean(PREF_TRANSLITERATE, transliterate);
+    editor.commit();
+  }
+
+  /**
+   * Converts the selected text, or all of the text in the editor, between
+   * Cyrillic and Latin.
+   */
+  private void convertScript() {
+    InputConnection ic = getCurrentInputConnection();
+    if (ic == null) {
+      return;
     }
-    updateShiftKeyState(getCurrentInputEditorInfo());
+    keyHandler.commitTyped();
+    scriptConverter.convert(ic, keyHandler.getSelectionStart(), keyHandler.getSelectionEnd());
   }
 
   private void handleShift() {
@@ -585,40 +805,35 @@ public class SoftKeyboard extends InputMethodService
     }
 
     Keyboard currentKeyboard = inputView.getKeyboard();
-    if (baseKeyboard == currentKeyboard) {
+    if (keyboards.getBase() == currentKeyboard) {
       // Alphabet keyboard
       checkToggleCapsLock();
       inputView.setShifted(isCapsLockPressed || !inputView.isShifted());
-    } else if (currentKeyboard == symbolsKeyboard) {
-      symbolsKeyboard.setShifted(true);
-      inputView.setKeyboard(symbolsShiftedKeyboard);
-      symbolsShiftedKeyboard.setShifted(true);
-    } else if (currentKeyboard == symbolsShiftedKeyboard) {
-      symbolsShiftedKeyboard.setShifted(false);
-      inputView.setKeyboard(symbolsKeyboard);
-      symbolsKeyboard.setShifted(false);
+    } else if (currentKeyboard == keyboards.getSymbols()) {
+      keyboards.getSymbols().setShifted(true);
+      inputView.setKeyboard(keyboards.getSymbolsShifted());
+      keyboards.getSymbolsShifted().setShifted(true);
+    } else if (currentKeyboard == keyboards.getSymbolsShifted()) {
+      keyboards.getSymbolsShifted().setShifted(false);
+      inputView.setKeyboard(keyboards.getSymbols());
+      keyboards.getSymbols().setShifted(false);
     }
   }
 
-  private void handleCharacter(int primaryCode, int[] keyCodes) {
-    if (isInputViewShown()) {
-      if (inputView.isShifted()) {
-        primaryCode = Character.toUpperCase(primaryCode);
-      }
-    }
-    if (isAlphabet(primaryCode) && enablePrediction) {
-      composing.append((char) primaryCode);
-      getCurrentInputConnection().setComposingText(composing, 1);
-      updateShiftKeyState(getCurrentInputEditorInfo());
-      updateCandidates();
-    } else {
-      getCurrentInputConnection().commitText(
-          String.valueOf((char) primaryCode), 1);
-    }
+  public boolean isShifted() {
+    return isInputViewShown() && inputView.isShifted();
+  }
+
+  public boolean isLetterKeyboardShown() {
+    return inputView != null && keyboards.getBase() == inputView.getKeyboard();
+  }
+
+  public void setShifted(boolean capsMode) {
+    inputView.setShifted(isCapsLockPressed || capsMode);
   }
 
   private void handleClose() {
-    commitTyped(getCurrentInputConnection());
+    keyHandler.commitTyped();
     requestHideSelf(0);
     inputView.closing();
   }
@@ -633,13 +848,8 @@ public class SoftKeyboard extends InputMethodService
     }
   }
 
-  private String getWordSeparators() {
-    return wordSeparators;
-  }
-
   public boolean isWordSeparator(int code) {
-    String separators = getWordSeparators();
-    return separators.contains(String.valueOf((char)code));
+    return characters.isSeparator(code);
   }
 
   public void pickDefaultCandidate() {
@@ -647,30 +857,34 @@ public class SoftKeyboard extends InputMethodService
   }
 
   public void pickSuggestionManually(int index) {
-    if (enableCompletion && mCompletions != null && index >= 0
+    if (keyHandler.isCompletionEnabled() && mCompletions != null && index >= 0
         && index < mCompletions.length) {
       CompletionInfo ci = mCompletions[index];
       getCurrentInputConnection().commitCompletion(ci);
       if (candidateView != null) {
         candidateView.clear();
       }
-      updateShiftKeyState(getCurrentInputEditorInfo());
-    } else if (composing.length() > 0) {
-      // If we were generating candidate suggestions for the current
-      // text, we would commit one of them here.  But for this sample,
-      // we will just commit the current text.
-      commitTyped(getCurrentInputConnection());
+      keyHandler.updateShiftKeyState();
+    } else if (keyHandler.isComposing() || showingPredictions) {
+      // The first entry is the typed word, unless the entries are predictions.
+      final int firstWord = showingPredictions ? 0 : 1;
+      if (suggestions != null && index >= firstWord && index < suggestions.size()) {
+        // Replace the typed word with the picked dictionary word.
+        keyHandler.replaceComposing(suggestions.getText(), suggestions.getTextStart(index),
+            suggestions.getTextLength(index));
+      }
+      keyHandler.commitTyped();
     }
   }
 
   public void swipeRight() {
-    if (enableCompletion) {
+    if (keyHandler.isCompletionEnabled()) {
       pickDefaultCandidate();
     }
   }
 
   public void swipeLeft() {
-    handleBackspace();
+    keyHandler.onKey(KeyHandler.KEYCODE_DELETE, null);
   }
 
   public void swipeDown() {
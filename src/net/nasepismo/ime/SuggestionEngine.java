@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Computes the suggestions for a typed word: the word itself, followed by its
+ * completions, the words it may stand for with its diacritics restored, and
+ * the words it may be a typo of, from the main dictionary and the words the
+ * user has taught.
+ *
+ * <p>The engine keeps reusable buffers, so it must be used by one thread at a
+ * time; other than {@link #setAdjacency}, which may be called from any.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class SuggestionEngine {
+
+  /** Where the words the user has taught come from. */
+  public interface LearnedWords {
+    /** The learned words as of now, or null if there are none. */
+    BinaryDictionary getDictionary();
+  }
+
+  /**
+   * Added to the node ids of learned words, to tell them apart from the words
+   * of the main dictionary.  Node ids stay below it, as the file format keeps
+   * them in 24 bits.
+   */
+  public static final int LEARNED_ID_BASE = 1 << 24;
+
+  private BinaryDictionary dictionary;
+  private final LearnedWords learnedWords;
+  private final FuzzySearch fuzzySearch = new FuzzySearch();
+  private final DiacriticRestorer diacriticRestorer = new DiacriticRestorer();
+  private final char[] wordBuffer = new char[BinaryDictionary.MAX_WORD_LENGTH];
+
+  /**
+   * @param dictionary the main dictionary, or null to suggest only the word
+   *     as typed
+   * @param learnedWords the words the user has taught, or null
+   */
+  public SuggestionEngine(BinaryDictionary dictionary, LearnedWords learnedWords) {
+    this.dictionary = dictionary;
+    this.learnedWords = learnedWords;
+  }
+
+  /**
+   * Suggests from {@code dictionary} from now on.  Must be called on the
+   * thread which generates the suggestions.
+   */
+  public void setDictionary(BinaryDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  /** Sets the keyboard whose neighbouring keys make likelier typos. */
+  public void setAdjacency(KeyAdjacency adjacency) {
+    fuzzySearch.setAdjacency(adjacency);
+  }
+
+  /**
+   * Fills {@code out}, which is empty, with the suggestions for {@code word},
+   * whose node in the main dictionary is {@code node}.
+   */
+  public void generate(CharSequence word, int node, Suggestions out) {
+    out.add(node, 0, word);
+    final BinaryDictionary learned = learnedWords != null ? learnedWords.getDictionary() : null;
+    final int learnedNode =
+        learned != null ? learned.findPrefix(word) : BinaryDictionary.NOT_FOUND;
+    if (dictionary == null) {
+      out.setTypedWordValid(true);
+    } else {
+      out.setTypedWordValid((node != BinaryDictionary.NOT_FOUND && dictionary.isWord(node))
+          || (learnedNode != BinaryDictionary.NOT_FOUND && learned.isWord(learnedNode)));
+    }
+    if (node != BinaryDictionary.NOT_FOUND) {
+      dictionary.getCompletions(node, out);
+    }
+    if (learnedNode != BinaryDictionary.NOT_FOUND) {
+      learned.getCompletions(learnedNode, LEARNED_ID_BASE, out);
+    }
+    diacriticRestorer.start(word);
+    fuzzySearch.start(word);
+    if (learned != null) {
+      diacriticRestorer.search(learned, LEARNED_ID_BASE, out);
+      fuzzySearch.search(learned, LEARNED_ID_BASE, out);
+    }
+    if (dictionary != null) {
+      diacriticRestorer.search(dictionary, 0, out);
+      fuzzySearch.search(dictionary, 0, out);
+    }
+
+    // The completions follow the capitalization of the typed word.
+    out.sort();
+    boolean capitalized = Character.isUpperCase(word.charAt(0));
+    for (int i = 1; i < out.size(); i++) {
+      final int id = out.getId(i);
+      int length = id >= LEARNED_ID_BASE
+          ? learned.getWord(id - LEARNED_ID_BASE, wordBuffer)
+          : dictionary.getWord(id, wordBuffer);
+      if (capitalized) {
+        wordBuffer[0] = Character.toUpperCase(wordBuffer[0]);
+      }
+      out.setText(i, wordBuffer, 0, length);
+    }
+    // A word may have been learned and be in the main dictionary as well.
+    out.removeDuplicates();
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Computes suggestions on a background thread, so that the key handling on the
+ * main thread never waits for the dictionary.
+ *
+ * <p>Every request gets a new generation number and replaces any request that
+ * the worker has not started on yet, so a burst of keystrokes costs a single
+ * computation.  Results that come back for an older generation than the latest
+ * request are dropped before they reach the listener.
+ *
+ * <p>Results are passed around in {@link Suggestions} objects from a small
+ * pool, which the listener hands back through {@link #recycle} once it no
+ * longer shows them.  In the steady state no request allocates.
+ *
+ * <p>The threads are those of two {@link Scheduler}s, which may well be the
+ * same one off the device.  All methods except {@link Generator#generate} are
+ * called on the main thread.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class SuggestionWorker {
+
+  /** Computes the suggestions for a word; called on the worker thread. */
+  public interface Generator {
+    /**
+     * Fills {@code out}, which is empty, with the suggestions for {@code word},
+     * whose dictionary node is {@code node}.
+     */
+    void generate(CharSequence word, int node, Suggestions out);
+  }
+
+  /**
+   * Receives the results of the latest request, on the main thread.  The
+   * listener owns the suggestions until it recycles them.
+   */
+  public interface Listener {
+    void onSuggestions(Suggestions suggestions);
+  }
+
+  private final int capacity;
+  private final Generator generator;
+  private final Listener listener;
+  private final Scheduler worker;
+  private final Scheduler main;
+  private final Runnable generateTask = new Runnable() {
+    public void run() {
+      generate();
+    }
+  };
+  private final Runnable deliverTask = new Runnable() {
+    public void run() {
+      deliver();
+    }
+  };
+
+  /** The latest generation handed out; main thread only. */
+  private int generation;
+
+  // The request waiting for the worker, and the result waiting for the main
+  // thread, guarded by lock.
+  private final Object lock = new Object();
+  private final StringBuilder pendingWord = new StringBuilder();
+  private int pendingNode;
+  private int pendingGeneration;
+  private boolean hasPending;
+  private Suggestions ready;
+  private int readyGeneration;
+
+  // Worker thread only.
+  private final StringBuilder word = new StringBuilder();
+
+  // Recycled results, guarded by pool.
+  private final Suggestions[] pool = new Suggestions[4];
+  private int poolSize;
+
+  private int coalescedCount;
+  private int discardedCount;
+
+  /**
+   * @param capacity how many ranked suggestions each result holds
+   * @param worker runs the generator
+   * @param main delivers the results; the thread this is used on
+   */
+  public SuggestionWorker(int capacity, Generator generator, Listener listener,
+      Scheduler worker, Scheduler main) {
+    this.capacity = capacity;
+    this.generator = generator;
+    this.listener = listener;
+    this.worker = worker;
+    this.main = main;
+  }
+
+  /**
+   * Asks for the suggestions for {@code composing}, replacing the pending
+   * request if there is one.  Never blocks on the worker.
+   */
+  public void request(CharSequence composing, int node) {
+    generation++;
+    boolean post;
+    synchronized (lock) {
+      post = !hasPending;
+      if (hasPending) {
+        coalescedCount++;
+      }
+      pendingWord.setLength(0);
+      pendingWord.append(composing);
+      pendingNode = node;
+      pendingGeneration = generation;
+      hasPending = true;
+    }
+    if (post) {
+      worker.post(generateTask);
+    }
+  }
+
+  /** Drops the pending request, and the results of any request in flight. */
+  public void cancel() {
+    generation++;
+    synchronized (lock) {
+      if (hasPending) {
+        hasPending = false;
+        discardedCount++;
+      }
+    }
+  }
+
+  /** Takes an empty suggestion list from the pool. */
+  public Suggestions obtain() {
+    synchronized (pool) {
+      if (poolSize > 0) {
+        Suggestions suggestions = pool[--poolSize];
+        pool[poolSize] = null;
+        suggestions.clear();
+        return suggestions;
+      }
+    }
+    return new Suggestions(capacity);
+  }
+
+  /** Gives a suggestion list which is no longer in use back to the pool. */
+  public void recycle(Suggestions suggestions) {
+    synchronized (pool) {
+      if (poolSize < pool.length) {
+        pool[poolSize++] = suggestions;
+      }
+    }
+  }
+
+  /** The number of requests replaced by a newer one before the worker got to them. */
+  public int getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /** The number of requests whose results were dropped as stale. */
+  public int getDiscardedCount() {
+    return discardedCount;
+  }
+
+  private void generate() {
+    final int node;
+    final int requestGeneration;
+    synchronized (lock) {
+      if (!hasPending) {
+        return;
+      }
+      word.setLength(0);
+      word.append(pendingWord);
+      node = pendingNode;
+      requestGeneration = pendingGeneration;
+      hasPending = false;
+    }
+    Suggestions suggestions = obtain();
+    generator.generate(word, node, suggestions);
+    Suggestions stale;
+    synchronized (lock) {
+      // A result the main thread has not taken yet is older than this one.
+      stale = ready;
+      if (stale != null) {
+        discardedCount++;
+      }
+      ready = suggestions;
+      readyGeneration = requestGeneration;
+    }
+    if (stale != null) {
+      recycle(stale);
+    } else {
+      main.post(deliverTask);
+    }
+  }
+
+  private void deliver() {
+    final Suggestions suggestions;
+    final int resultGeneration;
+    synchronized (lock) {
+      suggestions = ready;
+      resultGeneration = readyGeneration;
+      ready = null;
+      if (suggestions != null && resultGeneration != generation) {
+        discardedCount++;
+      }
+    }
+    if (suggestions == null) {
+      return;
+    }
+    if (resultGeneration != generation) {
+      recycle(suggestions);
+      return;
+    }
+    listener.onSuggestions(suggestions);
+  }
+}
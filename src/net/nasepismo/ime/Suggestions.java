@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * A reusable list of candidate words, kept in primitive arrays so that filling
+ * it again for every keystroke creates no garbage.
+ *
+ * <p>A list is filled in two phases.  First, candidates are ranked: fixed
+ * entries such as the typed word are {@link #add added} up front, and then any
+ * number of {@code (id, score)} pairs are {@link #offer offered} to a bounded
+ * min-heap which keeps the best {@code capacity} of them.  {@link #sort} puts
+ * the ranked entries in descending order of score.  Second, each entry gets
+ * its text, which is appended to a shared character buffer.
+ *
+ * <p>Readers such as {@link CandidateView} look at the text in place through
+ * {@link #getText}, {@link #getTextStart} and {@link #getTextLength}.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class Suggestions {
+
+  private final int capacity;
+
+  private int[] ids;
+  private int[] scores;
+  private int[] textStarts;
+  private int[] textLengths;
+  private int count;
+
+  private char[] text;
+  private int textLength;
+
+  /** Index of the first ranked entry; -1 until the first offer. */
+  private int heapStart = -1;
+
+  private boolean typedWordValid;
+
+  /**
+   * @param capacity how many ranked entries to keep; entries which are
+   *     {@link #add added} do not count against it
+   */
+  public Suggestions(int capacity) {
+    this.capacity = capacity;
+    int size = capacity + 1;
+    ids = new int[size];
+    scores = new int[size];
+    textStarts = new int[size];
+    textLengths = new int[size];
+    text = new char[size * BinaryDictionary.MAX_WORD_LENGTH];
+  }
+
+  public void clear() {
+    count = 0;
+    textLength = 0;
+    heapStart = -1;
+    typedWordValid = false;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public int getId(int index) {
+    return ids[index];
+  }
+
+  public int getScore(int index) {
+    return scores[index];
+  }
+
+  /** Whether an entry has the id {@code id}; takes time linear in the size. */
+  public boolean containsId(int id) {
+    for (int i = 0; i < count; i++) {
+      if (ids[i] == id) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isTypedWordValid() {
+    return typedWordValid;
+  }
+
+  public void setTypedWordValid(boolean typedWordValid) {
+    this.typedWordValid = typedWordValid;
+  }
+
+  /** Appends an entry which is not subject to ranking. */
+  public void add(int id, int score, char[] chars, int start, int length) {
+    ensureCapacity(count + 1);
+    ids[count] = id;
+    scores[count] = score;
+    count++;
+    setText(count - 1, chars, start, length);
+  }
+
+  /** Appends an entry which is not subject to ranking. */
+  public void add(int id, int score, CharSequence chars) {
+    final int length = chars.length();
+    ensureText(textLength + length);
+    for (int i = 0; i < length; i++) {
+      text[textLength + i] = chars.charAt(i);
+    }
+    add(id, score, text, textLength, length);
+  }
+
+  /**
+   * The lowest score which can still make it into the ranked entries, or -1 if
+   * there is room for any score.  Callers use it to skip candidates early.
+   */
+  public int getThreshold() {
+    if (heapStart < 0 || count - heapStart < capacity) {
+      return -1;
+    }
+    return scores[heapStart];
+  }
+
+  /**
+   * Offers a candidate for ranking.  It is kept if there is room, or if it
+   * beats the lowest ranked entry, which it then replaces.
+   */
+  public void offer(int id, int score) {
+    if (heapStart < 0) {
+      heapStart = count;
+    }
+    if (count - heapStart < capacity) {
+      ensureCapacity(count + 1);
+      ids[count] = id;
+      scores[count] = score;
+      siftUp(count - heapStart);
+      count++;
+    } else if (capacity > 0 && score > scores[heapStart]) {
+      ids[heapStart] = id;
+      scores[heapStart] = score;
+      siftDown(0, count - heapStart);
+    }
+  }
+
+  /** Puts the ranked entries in descending order of score. */
+  public void sort() {
+    if (heapStart < 0) {
+      return;
+    }
+    for (int end = count - heapStart - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    heapStart = -1;
+  }
+
+  /** Sets the text of an entry, after ranking. */
+  public void setText(int index, char[] chars, int start, int length) {
+    ensureText(textLength + length);
+    if (chars != text || start != textLength) {
+      System.arraycopy(chars, start, text, textLength, length);
+    }
+    textStarts[index] = textLength;
+    textLengths[index] = length;
+    textLength += length;
+  }
+
+  /**
+   * Drops the entries whose text equals that of an earlier entry, keeping the
+   * order of the rest.  Meant for a handful of entries, since every pair is
+   * compared.
+   */
+  public void removeDuplicates() {
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      boolean duplicate = false;
+      for (int j = 0; j < kept && !duplicate; j++) {
+        duplicate = textEquals(i, j);
+      }
+      if (!duplicate) {
+        ids[kept] = ids[i];
+        scores[kept] = scores[i];
+        textStarts[kept] = textStarts[i];
+        textLengths[kept] = textLengths[i];
+        kept++;
+      }
+    }
+    count = kept;
+  }
+
+  private boolean textEquals(int a, int b) {
+    final int length = textLengths[a];
+    if (textLengths[b] != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (text[textStarts[a] + i] != text[textStarts[b] + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** The buffer which holds the text of all entries. */
+  public char[] getText() {
+    return text;
+  }
+
+  public int getTextStart(int index) {
+    return textStarts[index];
+  }
+
+  public int getTextLength(int index) {
+    return textLengths[index];
+  }
+
+  // The heap is a min-heap on scores, rooted at heapStart.
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (scores[heapStart + parent] <= scores[heapStart + i]) {
+        return;
+      }
+      swap(parent, i);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int size) {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && scores[heapStart + left] < scores[heapStart + smallest]) {
+        smallest = left;
+      }
+      if (right < size && scores[heapStart + right] < scores[heapStart + smallest]) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    i += heapStart;
+    j += heapStart;
+    int id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    int score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+
+  private void ensureCapacity(int size) {
+    if (size <= ids.length) {
+      return;
+    }
+    int newSize = Math.max(size, ids.length * 2);
+    ids = grow(ids, newSize);
+    scores = grow(scores, newSize);
+    textStarts = grow(textStarts, newSize);
+    textLengths = grow(textLengths, newSize);
+  }
+
+  private void ensureText(int size) {
+    if (size > text.length) {
+      char[] grown = new char[Math.max(size, text.length * 2)];
+      System.arraycopy(text, 0, grown, 0, textLength);
+      text = grown;
+    }
+  }
+
+  private static int[] grow(int[] array, int size) {
+    int[] grown = new int[size];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
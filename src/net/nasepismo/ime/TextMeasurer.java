@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Measures how wide a run of text is drawn, so that layout can be done
+ * without a view or a paint at hand.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public interface TextMeasurer {
+
+  /** The width of {@code length} characters of {@code text} from {@code start}, in pixels. */
+  float measureText(char[] text, int start, int length);
+}
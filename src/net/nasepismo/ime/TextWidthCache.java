@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import android.graphics.Paint;
+
+/**
+ * Remembers the measured widths of the most recently used strings, since
+ * measuring Cyrillic text is slow and the candidate strip measures the same
+ * few words over and over.
+ *
+ * <p>Entries are keyed by the characters and by the parts of the paint that
+ * affect the width: the text size and fake-bold flag.  The cache holds a fixed
+ * number of entries in a hash table over primitive arrays, and evicts the
+ * least recently used one when full.  Lookups do not allocate; a miss only
+ * allocates when the key is longer than the evicted entry's.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class TextWidthCache {
+
+  private static final int EMPTY = -1;
+
+  private final int capacity;
+  private final int[] buckets;
+  private final int[] chain;
+  private final int[] hashes;
+  private final char[][] keys;
+  private final int[] keyLengths;
+  private final float[] textSizes;
+  private final boolean[] fakeBold;
+  private final float[] widths;
+
+  // Recency list, most recently used first.
+  private final int[] newer;
+  private final int[] older;
+  private int newest = EMPTY;
+  private int oldest = EMPTY;
+  private int size;
+
+  private int hitCount;
+  private int missCount;
+
+  public TextWidthCache(int capacity) {
+    this.capacity = capacity;
+    int bucketCount = 1;
+    while (bucketCount < capacity * 2) {
+      bucketCount <<= 1;
+    }
+    buckets = new int[bucketCount];
+    chain = new int[capacity];
+    hashes = new int[capacity];
+    keys = new char[capacity][];
+    keyLengths = new int[capacity];
+    textSizes = new float[capacity];
+    fakeBold = new boolean[capacity];
+    widths = new float[capacity];
+    newer = new int[capacity];
+    older = new int[capacity];
+    clear();
+  }
+
+  /** Forgets all widths, for instance when the font size changes. */
+  public void clear() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = EMPTY;
+    }
+    newest = EMPTY;
+    oldest = EMPTY;
+    size = 0;
+  }
+
+  /** Returns the width of the given text when drawn with {@code paint}. */
+  public float measureText(Paint paint, char[] text, int start, int length) {
+    final float textSize = paint.getTextSize();
+    final boolean bold = paint.isFakeBoldText();
+    int hash = bold ? 1 : 0;
+    hash = 31 * hash + Float.floatToIntBits(textSize);
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + text[start + i];
+    }
+
+    final int bucket = hash & (buckets.length - 1);
+    for (int entry = buckets[bucket]; entry != EMPTY; entry = chain[entry]) {
+      if (hashes[entry] == hash && textSizes[entry] == textSize && fakeBold[entry] == bold
+          && keyEquals(entry, text, start, length)) {
+        hitCount++;
+        moveToFront(entry);
+        return widths[entry];
+      }
+    }
+
+    missCount++;
+    float width = paint.measureText(text, start, length);
+    int entry;
+    if (size < capacity) {
+      entry = size++;
+    } else {
+      entry = oldest;
+      unlink(entry);
+      removeFromBucket(entry);
+    }
+    if (keys[entry] == null || keys[entry].length < length) {
+      keys[entry] = new char[Math.max(length, BinaryDictionary.MAX_WORD_LENGTH)];
+    }
+    System.arraycopy(text, start, keys[entry], 0, length);
+    keyLengths[entry] = length;
+    hashes[entry] = hash;
+    textSizes[entry] = textSize;
+    fakeBold[entry] = bold;
+    widths[entry] = width;
+    chain[entry] = buckets[bucket];
+    buckets[bucket] = entry;
+    linkFirst(entry);
+    return width;
+  }
+
+  public int getHitCount() {
+    return hitCount;
+  }
+
+  public int getMissCount() {
+    return missCount;
+  }
+
+  /** The share of lookups answered from the cache, from 0 to 1. */
+  public float getHitRate() {
+    int total = hitCount + missCount;
+    return total == 0 ? 0 : (float) hitCount / total;
+  }
+
+  private boolean keyEquals(int entry, char[] text, int start, int length) {
+    if (keyLengths[entry] != length) {
+      return false;
+    }
+    final char[] key = keys[entry];
+    for (int i = 0; i < length; i++) {
+      if (key[i] != text[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void removeFromBucket(int entry) {
+    final int bucket = hashes[entry] & (buckets.length - 1);
+    if (buckets[bucket] == entry) {
+      buckets[bucket] = chain[entry];
+      return;
+    }
+    for (int e = buckets[bucket]; e != EMPTY; e = chain[e]) {
+      if (chain[e] == entry) {
+        chain[e] = chain[entry];
+        return;
+      }
+    }
+  }
+
+  private void moveToFront(int entry) {
+    if (entry != newest) {
+      unlink(entry);
+      linkFirst(entry);
+    }
+  }
+
+  private void linkFirst(int entry) {
+    newer[entry] = EMPTY;
+    older[entry] = newest;
+    if (newest != EMPTY) {
+      newer[newest] = entry;
+    }
+    newest = entry;
+    if (oldest == EMPTY) {
+      oldest = entry;
+    }
+  }
+
+  private void unlink(int entry) {
+    if (newer[entry] != EMPTY) {
+      older[newer[entry]] = older[entry];
+    } else {
+      newest = older[entry];
+    }
+    if (older[entry] != EMPTY) {
+      newer[older[entry]] = newer[entry];
+    } else {
+      oldest = newer[entry];
+    }
+  }
+}
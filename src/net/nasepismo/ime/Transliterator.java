@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+/**
+ * Converts Serbian Latin text to Cyrillic as it is typed, and whole texts
+ * between the two scripts.
+ *
+ * <p>Most Latin letters map to one Cyrillic letter, but the digraphs lj, nj
+ * and d\u017e each map to a single letter.  The converter is a small
+ * transducer: it writes the Cyrillic el for an l right away, and when a j
+ * follows it replaces the el with lje instead of writing je.  It remembers one
+ * step per input letter, so that a backspace takes back exactly one typed
+ * letter, turning lje back into el.  Each step takes constant time.
+ *
+ * <p>The source is kept in ASCII, so the letters outside of it are written as
+ * Unicode escapes.
+ *
+ * <p>The static methods convert whole texts in one pass, for offline use.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class Transliterator {
+
+  /** {@link #undo} had nothing to take back. */
+  public static final int NONE = 0;
+  /** The step added a letter at the end of the text. */
+  public static final int APPENDED = 1;
+  /** The step replaced the last letter of the text. */
+  public static final int MERGED = 2;
+
+  private static final int LATIN_LIMIT = 0x0180;
+  private static final char[] LATIN_TO_CYRILLIC = new char[LATIN_LIMIT];
+
+  private static final int CYRILLIC_START = 0x0400;
+  private static final int CYRILLIC_LIMIT = 0x0460;
+  private static final char[] CYRILLIC_TO_LATIN = new char[CYRILLIC_LIMIT - CYRILLIC_START];
+
+  static {
+    map("abvgd\u0111e\u017ezijklmnoprst\u0107ufhc\u010d\u0161",
+        "\u0430\u0431\u0432\u0433\u0434\u0452\u0435\u0436\u0437\u0438\u0458\u043a\u043b\u043c"
+        + "\u043d\u043e\u043f\u0440\u0441\u0442\u045b\u0443\u0444\u0445\u0446\u0447\u0448");
+    map("ABVGD\u0110E\u017dZIJKLMNOPRST\u0106UFHC\u010c\u0160",
+        "\u0410\u0411\u0412\u0413\u0414\u0402\u0415\u0416\u0417\u0418\u0408\u041a\u041b\u041c"
+        + "\u041d\u041e\u041f\u0420\u0421\u0422\u040b\u0423\u0424\u0425\u0426\u0427\u0428");
+  }
+
+  private static void map(String latin, String cyrillic) {
+    for (int i = 0; i < latin.length(); i++) {
+      LATIN_TO_CYRILLIC[latin.charAt(i)] = cyrillic.charAt(i);
+      CYRILLIC_TO_LATIN[cyrillic.charAt(i) - CYRILLIC_START] = latin.charAt(i);
+    }
+  }
+
+  /**
+   * The Cyrillic letter for a single Latin letter; any other character is
+   * returned as it is.
+   */
+  public static char toCyrillic(char c) {
+    if (c < LATIN_LIMIT && LATIN_TO_CYRILLIC[c] != 0) {
+      return LATIN_TO_CYRILLIC[c];
+    }
+    return c;
+  }
+
+  /** Whether {@code c} is a letter of the Cyrillic block. */
+  static boolean isCyrillic(char c) {
+    return c >= CYRILLIC_START && c < 0x0530 && Character.isLetter(c);
+  }
+
+  /**
+   * The Cyrillic letter for the digraph {@code first second}, or 0 if the two
+   * do not form one.  The case follows the first letter, so that both Lj and
+   * LJ give the capital lje.
+   */
+  static char digraph(char first, char second) {
+    switch (second) {
+      case 'j':
+      case 'J':
+        switch (first) {
+          case 'l': return '\u0459';
+          case 'L': return '\u0409';
+          case 'n': return '\u045a';
+          case 'N': return '\u040a';
+          default: return 0;
+        }
+      case '\u017e':
+      case '\u017d':
+        switch (first) {
+          case 'd': return '\u045f';
+          case 'D': return '\u040f';
+          default: return 0;
+        }
+      default:
+        return 0;
+    }
+  }
+
+  private static boolean isDigraphStart(char c) {
+    return c == 'l' || c == 'L' || c == 'n' || c == 'N' || c == 'd' || c == 'D';
+  }
+
+  // One step per typed letter: the typed letter in the upper half and the step
+  // type in the lower half.  For merges, replacedLetters holds the letter that
+  // the digraph replaced.
+  private int[] steps = new int[BinaryDictionary.MAX_WORD_LENGTH];
+  private char[] replacedLetters = new char[BinaryDictionary.MAX_WORD_LENGTH];
+  private int stepCount;
+
+  /** Forgets the typed letters, as when the composed text is committed. */
+  public void reset() {
+    stepCount = 0;
+  }
+
+  /**
+   * Forgets the typed letters behind all but the last {@code letters} letters
+   * of the converted text, as when the text before them is committed.
+   */
+  public void keepLast(int letters) {
+    int first = stepCount;
+    int kept = 0;
+    while (first > 0 && kept < letters) {
+      first--;
+      if ((steps[first] & 0xff) == APPENDED) {
+        kept++;
+      }
+    }
+    stepCount -= first;
+    System.arraycopy(steps, first, steps, 0, stepCount);
+    System.arraycopy(replacedLetters, first, replacedLetters, 0, stepCount);
+  }
+
+  /** Whether {@link #undo} has a typed letter to take back. */
+  public boolean canUndo() {
+    return stepCount > 0;
+  }
+
+  /**
+   * Adds the typed letter {@code c} to the end of {@code out}, which holds
+   * the text converted so far.
+   *
+   * @return {@link #MERGED} if the letter completed a digraph and so replaced
+   *     the last letter of {@code out}, or {@link #APPENDED}
+   */
+  public int append(char c, StringBuilder out) {
+    final int length = out.length();
+    if (stepCount > 0 && length > 0 && (steps[stepCount - 1] & 0xff) == APPENDED) {
+      char previous = (char) (steps[stepCount - 1] >>> 16);
+      char merged = isDigraphStart(previous) ? digraph(previous, c) : 0;
+      if (merged != 0) {
+        char replaced = out.charAt(length - 1);
+        out.setCharAt(length - 1, merged);
+        push((c << 16) | MERGED, replaced);
+        return MERGED;
+      }
+    }
+    out.append(toCyrillic(c));
+    push((c << 16) | APPENDED, (char) 0);
+    return APPENDED;
+  }
+
+  /**
+   * Takes back the last typed letter from the end of {@code out}.
+   *
+   * @return {@link #APPENDED} if the last letter of {@code out} was removed,
+   *     {@link #MERGED} if it was turned back into the first letter of its
+   *     digraph, or {@link #NONE} if there was no typed letter to take back
+   */
+  public int undo(StringBuilder out) {
+    if (stepCount == 0 || out.length() == 0) {
+      stepCount = 0;
+      return NONE;
+    }
+    stepCount--;
+    final int length = out.length();
+    if ((steps[stepCount] & 0xff) == MERGED) {
+      out.setCharAt(length - 1, replacedLetters[stepCount]);
+      return MERGED;
+    }
+    out.setLength(length - 1);
+    return APPENDED;
+  }
+
+  private void push(int step, char replaced) {
+    if (stepCount == steps.length) {
+      int[] grownSteps = new int[steps.length * 2];
+      System.arraycopy(steps, 0, grownSteps, 0, stepCount);
+      steps = grownSteps;
+      char[] grownReplaced = new char[steps.length];
+      System.arraycopy(replacedLetters, 0, grownReplaced, 0, stepCount);
+      replacedLetters = grownReplaced;
+    }
+    steps[stepCount] = step;
+    replacedLetters[stepCount] = replaced;
+    stepCount++;
+  }
+
+  /**
+   * Converts {@code in[start, end)} to Cyrillic, appending the result to
+   * {@code out}.  Unless {@code endOfInput} is set, a trailing letter which
+   * could start a digraph is left alone, so that a text can be converted in
+   * pieces.
+   *
+   * @return the index up to which the input was converted
+   */
+  public static int toCyrillic(CharSequence in, int start, int end, boolean endOfInput,
+      StringBuilder out) {
+    int i = start;
+    while (i < end) {
+      char c = in.charAt(i);
+      if (isDigraphStart(c)) {
+        if (i + 1 == end) {
+          if (!endOfInput) {
+            break;
+          }
+        } else {
+          char merged = digraph(c, in.charAt(i + 1));
+          if (merged != 0) {
+            out.append(merged);
+            i += 2;
+            continue;
+          }
+        }
+      }
+      out.append(toCyrillic(c));
+      i++;
+    }
+    return i;
+  }
+
+  /** Converts a whole text to Cyrillic. */
+  public static String toCyrillic(CharSequence in) {
+    StringBuilder out = new StringBuilder(in.length());
+    toCyrillic(in, 0, in.length(), true, out);
+    return out.toString();
+  }
+
+  /**
+   * Converts {@code in[start, end)} to Latin, appending the result to
+   * {@code out}.  The capitals lje, nje and d\u017ee are written as LJ, NJ and
+   * D\u017d when the next letter is a capital too, and as Lj, Nj and D\u017e
+   * otherwise; unless {@code endOfInput} is set, such a letter at the end of
+   * the input is left alone until the next piece shows what follows it.
+   *
+   * @return the index up to which the input was converted
+   */
+  public static int toLatin(CharSequence in, int start, int end, boolean endOfInput,
+      StringBuilder out) {
+    for (int i = start; i < end; i++) {
+      char c = in.charAt(i);
+      switch (c) {
+        case '\u0459': out.append("lj"); break;
+        case '\u045a': out.append("nj"); break;
+        case '\u045f': out.append("d\u017e"); break;
+        case '\u0409':
+        case '\u040a':
+        case '\u040f':
+          if (i + 1 == end && !endOfInput) {
+            return i;
+          }
+          boolean allCaps = i + 1 < end && Character.isUpperCase(in.charAt(i + 1));
+          out.append(c == '\u0409' ? 'L' : c == '\u040a' ? 'N' : 'D');
+          if (c == '\u040f') {
+            out.append(allCaps ? '\u017d' : '\u017e');
+          } else {
+            out.append(allCaps ? 'J' : 'j');
+          }
+          break;
+        default:
+          if (c >= CYRILLIC_START && c < CYRILLIC_LIMIT
+              && CYRILLIC_TO_LATIN[c - CYRILLIC_START] != 0) {
+            out.append(CYRILLIC_TO_LATIN[c - CYRILLIC_START]);
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    return end;
+  }
+
+  /** Converts a whole text to Latin. */
+  public static String toLatin(CharSequence in) {
+    StringBuilder out = new StringBuilder(in.length() + in.length() / 8);
+    toLatin(in, 0, in.length(), true, out);
+    return out.toString();
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2008-2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.nasepismo.ime;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Learns the words the user commits, and offers them as a second dictionary.
+ *
+ * <p>Committed words are queued in memory and appended to a log file in
+ * batches, each followed by an fsync, on a background thread.  Once enough
+ * words have been logged, the log is compacted into a {@link BinaryDictionary}
+ * file: the frequencies already in it decay, the logged words are counted in,
+ * and the result replaces the old file atomically and is mapped again.  A
+ * crash loses at most the batch which had not been written yet.
+ *
+ * <p>{@link #record} and {@link #close} are called on the main thread and never
+ * touch the disk.  {@link #getDictionary} may be called on any thread.
+ *
+ * @author filmil@gmail.com (Filip Miletic)
+ */
+public class UserDictionary implements SuggestionEngine.LearnedWords {
+
+  private static final String TAG = "UserDictionary";
+
+  static final String LOG_FILE = "user.log";
+  static final String DICTIONARY_FILE = "user.dict";
+
+  /** How long committed words wait before they are written as a batch. */
+  static final long FLUSH_DELAY_MS = 2000;
+
+  /** How many logged words trigger a compaction. */
+  static final int COMPACT_THRESHOLD = 200;
+
+  /** How much each use of a word adds to its frequency. */
+  static final int USE_INCREMENT = 16;
+
+  private static final int MSG_OPEN = 1;
+  private static final int MSG_FLUSH = 2;
+  private static final int MSG_CLOSE = 3;
+
+  private final File logFile;
+  private final File dictionaryFile;
+  private final HandlerThread thread;
+  private final Handler handler;
+
+  // Committed words not yet written, one per line; guarded by itself.
+  private final StringBuilder pending = new StringBuilder();
+
+  // Background thread only.
+  private final StringBuilder batch = new StringBuilder();
+  private int loggedCount;
+
+  private volatile BinaryDictionary dictionary;
+
+  /**
+   * Starts the background thread, which maps the dictionary and compacts any
+   * log left over from the last run.
+   *
+   * @param directory where the log and the dictionary are kept
+   */
+  public UserDictionary(File directory) {
+    logFile = new File(directory, LOG_FILE);
+    dictionaryFile = new File(directory, DICTIONARY_FILE);
+    thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    handler = new Handler(thread.getLooper()) {
+      @Override
+      public void handleMessage(Message msg) {
+        switch (msg.what) {
+          case MSG_OPEN:
+            open();
+            break;
+          case MSG_FLUSH:
+            flush();
+            break;
+          case MSG_CLOSE:
+            flush();
+            thread.quit();
+            break;
+        }
+      }
+    };
+    handler.sendEmptyMessage(MSG_OPEN);
+  }
+
+  /** The learned words as of the last compaction, or null if there are none. */
+  public BinaryDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /** Queues a committed word to be learned. */
+  public void record(CharSequence word) {
+    if (word.length() == 0 || word.length() > BinaryDictionary.MAX_WORD_LENGTH) {
+      return;
+    }
+    boolean schedule;
+    synchronized (pending) {
+      schedule = pending.length() == 0;
+      pending.append(word).append('\n');
+    }
+    if (schedule) {
+      handler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MS);
+    }
+  }
+
+  /** Writes out the queued words and stops the background thread. */
+  public void close() {
+    handler.sendEmptyMessage(MSG_CLOSE);
+  }
+
+  private void open() {
+    if (logFile.length() > 0) {
+      compact();
+    } else {
+      map();
+    }
+  }
+
+  private void map() {
+    if (!dictionaryFile.exists()) {
+      return;
+    }
+    try {
+      dictionary = BinaryDictionary.open(dictionaryFile);
+    } catch (IOException e) {
+      Log.w(TAG, "Could not open the user dictionary", e);
+    }
+  }
+
+  private void flush() {
+    batch.setLength(0);
+    synchronized (pending) {
+      batch.append(pending);
+      pending.setLength(0);
+    }
+    if (batch.length() == 0) {
+      return;
+    }
+    try {
+      FileOutputStream out = new FileOutputStream(logFile, true);
+      try {
+        out.write(batch.toString().getBytes("UTF-8"));
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not write the user dictionary log", e);
+      return;
+    }
+    for (int i = 0; i < batch.length(); i++) {
+      if (batch.charAt(i) == '\n') {
+        loggedCount++;
+      }
+    }
+    if (loggedCount >= COMPACT_THRESHOLD) {
+      compact();
+    }
+  }
+
+  /**
+   * Folds the log into the dictionary file.  If this is interrupted before the
+   * log is deleted, the logged words are counted again next time, which only
+   * overstates their frequency a little.
+   */
+  private void compact() {
+    Map<String, Integer> frequencies = new HashMap<String, Integer>();
+    BinaryDictionary old = dictionary;
+    if (old == null && dictionaryFile.exists()) {
+      try {
+        old = BinaryDictionary.open(dictionaryFile);
+      } catch (IOException e) {
+        Log.w(TAG, "Dropping the unreadable user dictionary", e);
+      }
+    }
+    if (old != null) {
+      char[] word = new char[BinaryDictionary.MAX_WORD_LENGTH];
+      for (int node = 1; node < old.getNodeCount(); node++) {
+        int frequency = decay(old.getFrequency(node));
+        if (frequency > 0) {
+          frequencies.put(new String(word, 0, old.getWord(node, word)), frequency);
+        }
+      }
+    }
+
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(logFile), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String word = lowerCase(line);
+          Integer frequency = frequencies.get(word);
+          int base = frequency == null ? 0 : frequency;
+          frequencies.put(word, Math.min(255, base + USE_INCREMENT));
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // A missing log just leaves the dictionary to decay.
+    }
+
+    DictionaryWriter writer = new DictionaryWriter();
+    for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+      writer.addWord(entry.getKey(), entry.getValue());
+    }
+    File temp = new File(dictionaryFile.getPath() + ".tmp");
+    try {
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+        writer.write(out);
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+      if (!temp.renameTo(dictionaryFile)) {
+        throw new IOException("Could not replace " + dictionaryFile);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not compact the user dictionary", e);
+      return;
+    } catch (IllegalArgumentException e) {
+      // Too many words for the format: keeps the old dictionary and the log.
+      Log.w(TAG, "Could not compact the user dictionary", e);
+      temp.delete();
+      return;
+    }
+    logFile.delete();
+    loggedCount = 0;
+    map();
+  }
+
+  /** Lowers a frequency by an eighth, so that words which fall out of use go away. */
+  static int decay(int frequency) {
+    return frequency * 7 / 8;
+  }
+
+  /**
+   * Lowers the case of {@code word} one character at a time, as the
+   * dictionaries do, so that the result does not depend on the locale.
+   */
+  static String lowerCase(String word) {
+    char[] chars = word.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+}